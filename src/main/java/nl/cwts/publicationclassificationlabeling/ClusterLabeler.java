@@ -0,0 +1,23 @@
+package nl.cwts.publicationclassificationlabeling;
+
+/**
+ * Interface for cluster labelers.
+ *
+ * @author agent
+ */
+public interface ClusterLabeler
+{
+    /**
+     * Separator between the concatenated titles of the publications assigned to a cluster.
+     */
+    public static final String PUB_TITLE_SEPARATOR = " | ";
+
+    /**
+     * Returns the labeling of a cluster based on the titles of the publications assigned to the cluster.
+     *
+     * @param pubTitles Publication titles
+     *
+     * @return Cluster labeling
+     */
+    public ClusterLabeling getClusterLabeling(String pubTitles);
+}
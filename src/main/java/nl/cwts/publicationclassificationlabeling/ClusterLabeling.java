@@ -2,6 +2,9 @@ package nl.cwts.publicationclassificationlabeling;
 
 import java.util.ArrayList;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+
 /**
  * Cluster labeling.
  * 
@@ -55,19 +58,43 @@ public class ClusterLabeling
     /**
      * Returns the keyword list as a string.
      * 
-     * @return Keywords
+     * @return Keywords, or an empty string if there are no keywords
      */
     public String getKeywords()
     {
         if (keywords.isEmpty())
-            return null;
-        String keywords = "";
-        for (int j = 0; j < this.keywords.size(); j++)
+            return "";
+        int length = 2 * (keywords.size() - 1);
+        for (String keyword : keywords)
+            length += keyword.length();
+        StringBuilder builder = new StringBuilder(length);
+        for (int j = 0; j < keywords.size(); j++)
         {
-            keywords += this.keywords.get(j);
-            if (j < (this.keywords.size() - 1))
-                keywords += "; ";
+            if (j > 0)
+                builder.append("; ");
+            builder.append(keywords.get(j));
         }
-        return keywords;
+        return builder.toString();
+    }
+
+    /**
+     * Returns the labeling as a JSON object.
+     *
+     * <p>
+     * The names of the fields correspond with the columns of the labels
+     * output table.
+     * </p>
+     *
+     * @return JSON object
+     */
+    public JSONObject toJSON()
+    {
+        JSONObject json = new JSONObject();
+        json.put("short_label", shortLabel);
+        json.put("long_label", longLabel);
+        json.put("keywords", new JSONArray(keywords));
+        json.put("summary", summary);
+        json.put("wikipedia_url", wikipediaPage);
+        return json;
     }
 }
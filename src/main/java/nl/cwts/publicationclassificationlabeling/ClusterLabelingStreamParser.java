@@ -0,0 +1,314 @@
+package nl.cwts.publicationclassificationlabeling;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Incremental parser of a cluster labeling that is streamed as JSON by the
+ * OpenAI API.
+ *
+ * <p>
+ * The parser processes the response chunk by chunk. It determines whether the
+ * labeling is complete, either because all labeling fields have been received
+ * or because the JSON object has been closed, and whether the response goes
+ * off-schema, for instance because it does not start with a JSON object,
+ * because the value of the keywords field is not an array, or because the
+ * value of another labeling field is an array or an object. A number,
+ * boolean, or null value of a string field is accepted, like it is when the
+ * full response is parsed. Field names are matched case-insensitively. The
+ * values of unknown fields are skipped.
+ * </p>
+ *
+ * @author agent
+ */
+class ClusterLabelingStreamParser
+{
+    /**
+     * Parser states.
+     */
+    private enum State
+    {
+        BEFORE_OBJECT, CODE_BLOCK_START, EXPECT_KEY, KEY, EXPECT_COLON, EXPECT_VALUE, STRING_VALUE, PRIMITIVE_VALUE, ARRAY_VALUE, AFTER_VALUE
+    }
+
+    /**
+     * Start of a JSON code block.
+     */
+    private static final String CODE_BLOCK_START = "```json";
+
+    /**
+     * Labeling fields.
+     */
+    private static final Map<String, Integer> FIELDS = new HashMap<>();
+    private static final int N_FIELDS = 5;
+    private static final int KEYWORDS_FIELD = 2;
+    private static final int UNKNOWN_FIELD = -1;
+
+    static
+    {
+        FIELDS.put("short label", 0);
+        FIELDS.put("short_label", 0);
+        FIELDS.put("long label", 1);
+        FIELDS.put("long_label", 1);
+        FIELDS.put("keywords", KEYWORDS_FIELD);
+        FIELDS.put("summary", 3);
+        FIELDS.put("wikipedia page", 4);
+        FIELDS.put("wikipedia_page", 4);
+    }
+
+    /**
+     * Response received so far.
+     */
+    private StringBuilder response = new StringBuilder();
+
+    /**
+     * Parser state.
+     */
+    private State state = State.BEFORE_OBJECT;
+    private int position;
+    private int objectStart = -1;
+    private int arrayDepth;
+    private boolean inArrayString;
+    private boolean escaped;
+    private StringBuilder token = new StringBuilder();
+    private int field;
+    private boolean[] completedFields = new boolean[N_FIELDS];
+    private int nCompletedFields;
+    private boolean objectClosed;
+    private boolean offSchema;
+
+    /**
+     * Appends a chunk of the response and parses it.
+     *
+     * @param chunk Chunk of the response
+     */
+    public void append(String chunk)
+    {
+        response.append(chunk);
+        while ((position < response.length()) && !isComplete() && !offSchema)
+            process(response.charAt(position++));
+    }
+
+    /**
+     * Returns whether the labeling is complete.
+     *
+     * @return Whether the labeling is complete
+     */
+    public boolean isComplete()
+    {
+        return objectClosed || (nCompletedFields == N_FIELDS);
+    }
+
+    /**
+     * Returns whether the response has gone off-schema.
+     *
+     * @return Whether the response has gone off-schema
+     */
+    public boolean isOffSchema()
+    {
+        return offSchema;
+    }
+
+    /**
+     * Returns the response received so far.
+     *
+     * @return Response
+     */
+    public String getResponse()
+    {
+        return response.toString();
+    }
+
+    /**
+     * Returns the JSON object of a complete labeling.
+     *
+     * <p>
+     * If all fields have been received before the JSON object has been closed,
+     * the object is closed by the parser.
+     * </p>
+     *
+     * @return JSON object
+     */
+    public String getJSON()
+    {
+        if (!isComplete())
+            throw new IllegalStateException("Labeling is not complete.");
+        String json = response.substring(objectStart, position);
+        return objectClosed ? json : (json + "}");
+    }
+
+    /**
+     * Processes a character of the response.
+     *
+     * @param c Character
+     */
+    private void process(char c)
+    {
+        switch (state)
+        {
+            case BEFORE_OBJECT:
+                if (c == '{')
+                    startObject();
+                else if (c == '`')
+                {
+                    token.setLength(0);
+                    token.append(c);
+                    state = State.CODE_BLOCK_START;
+                }
+                else if (!Character.isWhitespace(c))
+                    offSchema = true;
+                break;
+            case CODE_BLOCK_START:
+                if ((c == '\n') || (c == '{'))
+                {
+                    String codeBlockStart = token.toString();
+                    if (!codeBlockStart.equals(CODE_BLOCK_START) && !codeBlockStart.equals("```"))
+                        offSchema = true;
+                    else if (c == '{')
+                        startObject();
+                    else
+                        state = State.BEFORE_OBJECT;
+                }
+                else if (!Character.isWhitespace(c))
+                {
+                    token.append(c);
+                    if (!CODE_BLOCK_START.startsWith(token.toString()))
+                        offSchema = true;
+                }
+                break;
+            case EXPECT_KEY:
+                if (c == '"')
+                {
+                    token.setLength(0);
+                    escaped = false;
+                    state = State.KEY;
+                }
+                else if (c == '}')
+                    objectClosed = true;
+                else if (!Character.isWhitespace(c))
+                    offSchema = true;
+                break;
+            case KEY:
+                if (escaped)
+                {
+                    token.append(c);
+                    escaped = false;
+                }
+                else if (c == '\\')
+                    escaped = true;
+                else if (c == '"')
+                {
+                    field = FIELDS.getOrDefault(token.toString().toLowerCase(Locale.ROOT), UNKNOWN_FIELD);
+                    state = State.EXPECT_COLON;
+                }
+                else
+                    token.append(c);
+                break;
+            case EXPECT_COLON:
+                if (c == ':')
+                    state = State.EXPECT_VALUE;
+                else if (!Character.isWhitespace(c))
+                    offSchema = true;
+                break;
+            case EXPECT_VALUE:
+                if (Character.isWhitespace(c))
+                    break;
+                if ((field == UNKNOWN_FIELD) && ((c == '[') || (c == '{')))
+                {
+                    arrayDepth = 1;
+                    inArrayString = false;
+                    escaped = false;
+                    state = State.ARRAY_VALUE;
+                }
+                else if (field == KEYWORDS_FIELD)
+                {
+                    if (c == '[')
+                    {
+                        arrayDepth = 1;
+                        inArrayString = false;
+                        escaped = false;
+                        state = State.ARRAY_VALUE;
+                    }
+                    else
+                        offSchema = true;
+                }
+                else if (c == '"')
+                {
+                    escaped = false;
+                    state = State.STRING_VALUE;
+                }
+                else if (Character.isLetterOrDigit(c) || (c == '-'))
+                    state = State.PRIMITIVE_VALUE;
+                else
+                    offSchema = true;
+                break;
+            case STRING_VALUE:
+                if (escaped)
+                    escaped = false;
+                else if (c == '\\')
+                    escaped = true;
+                else if (c == '"')
+                    completeField();
+                break;
+            case PRIMITIVE_VALUE:
+                if ((c == ',') || (c == '}') || Character.isWhitespace(c))
+                {
+                    completeField();
+                    process(c);
+                }
+                break;
+            case ARRAY_VALUE:
+                if (inArrayString)
+                {
+                    if (escaped)
+                        escaped = false;
+                    else if (c == '\\')
+                        escaped = true;
+                    else if (c == '"')
+                        inArrayString = false;
+                }
+                else if (c == '"')
+                    inArrayString = true;
+                else if ((c == '[') || (c == '{'))
+                    arrayDepth++;
+                else if ((c == ']') || (c == '}'))
+                {
+                    arrayDepth--;
+                    if (arrayDepth == 0)
+                        completeField();
+                }
+                break;
+            case AFTER_VALUE:
+                if (c == ',')
+                    state = State.EXPECT_KEY;
+                else if (c == '}')
+                    objectClosed = true;
+                else if (!Character.isWhitespace(c))
+                    offSchema = true;
+                break;
+        }
+    }
+
+    /**
+     * Starts the JSON object at the current position.
+     */
+    private void startObject()
+    {
+        objectStart = position - 1;
+        state = State.EXPECT_KEY;
+    }
+
+    /**
+     * Marks the value of the current field as complete.
+     */
+    private void completeField()
+    {
+        if ((field != UNKNOWN_FIELD) && !completedFields[field])
+        {
+            completedFields[field] = true;
+            nCompletedFields++;
+        }
+        state = State.AFTER_VALUE;
+    }
+}
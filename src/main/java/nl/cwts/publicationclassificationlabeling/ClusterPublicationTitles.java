@@ -0,0 +1,220 @@
+package nl.cwts.publicationclassificationlabeling;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact store of the publication titles of each cluster.
+ *
+ * <p>
+ * The publication titles of all clusters are stored as UTF-8 bytes in a single
+ * buffer, which is allocated either on the heap or off-heap. For each cluster,
+ * the offset and length of its publication titles in the buffer are stored.
+ * Publication titles are decoded only when they are requested.
+ * </p>
+ *
+ * <p>
+ * Publication titles must be set by a single thread. Once all publication
+ * titles have been set, they can be requested concurrently.
+ * </p>
+ *
+ * @author agent
+ */
+public class ClusterPublicationTitles
+{
+    /**
+     * Initial buffer capacity in bytes.
+     */
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    /**
+     * Maximum buffer capacity in bytes.
+     */
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    /**
+     * Maximum number of UTF-8 bytes per UTF-16 character.
+     */
+    private static final int MAX_BYTES_PER_CHAR = 3;
+
+    /**
+     * Indicates whether the buffer is allocated off-heap.
+     */
+    private boolean offHeap;
+
+    /**
+     * Buffer containing the publication titles of all clusters.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Offset of the publication titles of each cluster in the buffer, or -1 if
+     * the publication titles of a cluster have not been set.
+     */
+    private int[] offsets;
+
+    /**
+     * Length in bytes of the publication titles of each cluster.
+     */
+    private int[] lengths;
+
+    /**
+     * UTF-8 encoder.
+     */
+    private CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * Constructs a store of the publication titles of each cluster.
+     *
+     * @param nClusters Number of clusters
+     * @param offHeap   Indicates whether the buffer is allocated off-heap
+     */
+    public ClusterPublicationTitles(int nClusters, boolean offHeap)
+    {
+        this.offHeap = offHeap;
+        buffer = allocate(INITIAL_CAPACITY);
+        offsets = new int[nClusters];
+        Arrays.fill(offsets, -1);
+        lengths = new int[nClusters];
+    }
+
+    /**
+     * Returns the number of clusters.
+     *
+     * @return Number of clusters
+     */
+    public int getNClusters()
+    {
+        return offsets.length;
+    }
+
+    /**
+     * Returns whether the publication titles of a cluster have been set.
+     *
+     * @param clusterNo Cluster number
+     *
+     * @return Whether the publication titles have been set
+     */
+    public boolean contains(int clusterNo)
+    {
+        return offsets[clusterNo] >= 0;
+    }
+
+    /**
+     * Returns whether a cluster has no publication titles.
+     *
+     * @param clusterNo Cluster number
+     *
+     * @return Whether the cluster has no publication titles
+     */
+    public boolean isEmpty(int clusterNo)
+    {
+        return lengths[clusterNo] == 0;
+    }
+
+    /**
+     * Returns the number of bytes used to store the publication titles of all
+     * clusters.
+     *
+     * @return Number of bytes
+     */
+    public int getNBytes()
+    {
+        return buffer.position();
+    }
+
+    /**
+     * Sets the publication titles of a cluster.
+     *
+     * @param clusterNo Cluster number
+     * @param pubTitles Publication titles
+     *
+     * @throws IllegalStateException If the publication titles of all clusters
+     *                               would exceed the maximum buffer capacity
+     */
+    public void setPublicationTitles(int clusterNo, String pubTitles)
+    {
+        if (contains(clusterNo))
+            throw new IllegalArgumentException("Publication titles of cluster " + clusterNo + " have already been set.");
+        long maxNBytes = (long)buffer.position() + (long)pubTitles.length() * MAX_BYTES_PER_CHAR;
+        if (maxNBytes > MAX_CAPACITY)
+            throw new IllegalStateException("Publication titles exceed the maximum size of " + MAX_CAPACITY + " bytes.");
+        ensureCapacity((int)maxNBytes);
+        int offset = buffer.position();
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(pubTitles), buffer, true);
+        encoder.flush(buffer);
+        offsets[clusterNo] = offset;
+        lengths[clusterNo] = buffer.position() - offset;
+    }
+
+    /**
+     * Returns the publication titles of a cluster.
+     *
+     * @param clusterNo Cluster number
+     *
+     * @return Publication titles, or null if the publication titles of the
+     *         cluster have not been set
+     */
+    public String getPublicationTitles(int clusterNo)
+    {
+        if (!contains(clusterNo))
+            return null;
+        if (buffer.hasArray())
+            return new String(buffer.array(), buffer.arrayOffset() + offsets[clusterNo], lengths[clusterNo], StandardCharsets.UTF_8);
+        ByteBuffer pubTitles = buffer.duplicate();
+        ((Buffer)pubTitles).limit(offsets[clusterNo] + lengths[clusterNo]);
+        ((Buffer)pubTitles).position(offsets[clusterNo]);
+        return StandardCharsets.UTF_8.decode(pubTitles).toString();
+    }
+
+    /**
+     * Reduces the capacity of the buffer to the number of bytes used.
+     */
+    public void trimToSize()
+    {
+        if (buffer.capacity() > buffer.position())
+            resize(buffer.position());
+    }
+
+    /**
+     * Ensures that the buffer has at least a given capacity.
+     *
+     * @param minCapacity Minimum capacity
+     */
+    private void ensureCapacity(int minCapacity)
+    {
+        if (buffer.capacity() < minCapacity)
+            resize((int)Math.min(Math.max(2L * buffer.capacity(), minCapacity), MAX_CAPACITY));
+    }
+
+    /**
+     * Resizes the buffer.
+     *
+     * @param capacity New capacity
+     */
+    private void resize(int capacity)
+    {
+        ByteBuffer newBuffer = allocate(capacity);
+        ((Buffer)buffer).flip();
+        newBuffer.put(buffer);
+        buffer = newBuffer;
+    }
+
+    /**
+     * Allocates a buffer.
+     *
+     * @param capacity Capacity
+     *
+     * @return Buffer
+     */
+    private ByteBuffer allocate(int capacity)
+    {
+        return offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
@@ -0,0 +1,192 @@
+package nl.cwts.publicationclassificationlabeling;
+
+/**
+ * Adaptive limiter of the number of concurrent requests.
+ *
+ * <p>
+ * The limit is increased additively, by one per limit-sized batch of
+ * successful requests, as long as requests succeed and their latency is
+ * stable. The limit is decreased multiplicatively if a request is rejected
+ * because of rate limiting, times out, or has a latency that is much higher
+ * than the average latency of recent requests. Feedback of requests that were
+ * started before the most recent decrease is not used to decrease the limit
+ * again. Changes of the limit are logged to the standard output.
+ * </p>
+ *
+ * <p>
+ * All methods in this class are thread-safe.
+ * </p>
+ *
+ * @author agent
+ */
+public class ConcurrencyLimiter
+{
+    /**
+     * Multiplicative decrease factor.
+     */
+    private static final double DECREASE_FACTOR = 0.5;
+
+    /**
+     * Latency spike parameters. A latency is considered a spike if it is
+     * more than the given factor times the exponentially smoothed average
+     * latency.
+     */
+    private static final double LATENCY_SPIKE_FACTOR = 2.5;
+    private static final double LATENCY_SMOOTHING_WEIGHT = 0.1;
+
+    /**
+     * Minimum and maximum limit.
+     */
+    private int minLimit;
+    private int maxLimit;
+
+    /**
+     * Current limit.
+     */
+    private double limit;
+
+    /**
+     * Number of requests in flight.
+     */
+    private int nInFlight;
+
+    /**
+     * Exponentially smoothed average latency in milliseconds.
+     */
+    private double avgLatency = -1;
+
+    /**
+     * Time of the most recent decrease of the limit.
+     */
+    private long lastDecreaseTime = Long.MIN_VALUE;
+
+    /**
+     * Constructs a concurrency limiter.
+     *
+     * @param initialLimit Initial limit
+     * @param maxLimit     Maximum limit
+     */
+    public ConcurrencyLimiter(int initialLimit, int maxLimit)
+    {
+        minLimit = 1;
+        this.maxLimit = Math.max(minLimit, maxLimit);
+        limit = Math.max(minLimit, Math.min(initialLimit, this.maxLimit));
+    }
+
+    /**
+     * Waits until a request can be started within the current limit.
+     *
+     * @return Start time of the request
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public synchronized long acquire() throws InterruptedException
+    {
+        while (nInFlight >= getLimit())
+            wait();
+        nInFlight++;
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Starts a request if this is possible within the current limit without
+     * waiting.
+     *
+     * @return Start time of the request, or -1 if the limit has been reached
+     */
+    public synchronized long tryAcquire()
+    {
+        if (nInFlight >= getLimit())
+            return -1;
+        nInFlight++;
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Releases a request that succeeded.
+     *
+     * @param startTime Start time of the request
+     */
+    public synchronized void releaseSuccess(long startTime)
+    {
+        long latency = System.currentTimeMillis() - startTime;
+        if ((avgLatency > 0) && (latency > LATENCY_SPIKE_FACTOR * avgLatency))
+            decrease(startTime, "latency spike of " + latency + " ms");
+        else if (nInFlight >= getLimit() - 1)
+        {
+            int oldLimit = getLimit();
+            limit = Math.min(limit + 1 / limit, maxLimit);
+            if (getLimit() != oldLimit)
+                System.out.println("Concurrency limit increased to " + getLimit() + ".");
+        }
+        avgLatency = (avgLatency < 0) ? latency : ((1 - LATENCY_SMOOTHING_WEIGHT) * avgLatency + LATENCY_SMOOTHING_WEIGHT * latency);
+        release();
+    }
+
+    /**
+     * Releases a request that was rejected because of rate limiting or that timed out.
+     *
+     * @param startTime Start time of the request
+     */
+    public synchronized void releaseOverloaded(long startTime)
+    {
+        decrease(startTime, "rate limiting or timeout");
+        release();
+    }
+
+    /**
+     * Releases a request that failed for another reason.
+     *
+     * @param startTime Start time of the request
+     */
+    public synchronized void releaseFailure(long startTime)
+    {
+        release();
+    }
+
+    /**
+     * Returns the current limit.
+     *
+     * @return Current limit
+     */
+    public synchronized int getLimit()
+    {
+        return (int)limit;
+    }
+
+    /**
+     * Returns the number of requests in flight.
+     *
+     * @return Number of requests in flight
+     */
+    public synchronized int getNInFlight()
+    {
+        return nInFlight;
+    }
+
+    /**
+     * Decreases the limit multiplicatively.
+     *
+     * @param startTime Start time of the request that triggered the decrease
+     * @param reason    Reason of the decrease
+     */
+    private void decrease(long startTime, String reason)
+    {
+        if (startTime < lastDecreaseTime)
+            return;
+        int oldLimit = getLimit();
+        limit = Math.max(limit * DECREASE_FACTOR, minLimit);
+        lastDecreaseTime = System.currentTimeMillis();
+        if (getLimit() != oldLimit)
+            System.out.println("Concurrency limit decreased to " + getLimit() + " (" + reason + ").");
+    }
+
+    /**
+     * Releases a request.
+     */
+    private void release()
+    {
+        nInFlight--;
+        notifyAll();
+    }
+}
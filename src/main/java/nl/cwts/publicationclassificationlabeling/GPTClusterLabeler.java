@@ -1,14 +1,28 @@
 package nl.cwts.publicationclassificationlabeling;
 
+import java.net.SocketTimeoutException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.theokanning.openai.OpenAiHttpException;
 import com.theokanning.openai.completion.chat.ChatCompletionRequest;
 import com.theokanning.openai.completion.chat.ChatCompletionResult;
 import com.theokanning.openai.completion.chat.ChatMessage;
@@ -20,7 +34,7 @@ import com.theokanning.openai.utils.TikTokensUtil;
  * 
  * @author Nees Jan van Eck
  */
-public class GPTClusterLabeler
+public class GPTClusterLabeler implements ClusterLabeler
 {
     /**
      * OpenAI API timeout parameters.
@@ -28,6 +42,12 @@ public class GPTClusterLabeler
     private static final int OPENAI_API_TIMEOUT = 45;
     private static final int OPENAI_API_TIMEOUT_SLEEP = 30;
 
+    /**
+     * Maximum number of immediate retries of streamed requests whose response
+     * does not match the labeling schema. Further retries are delayed.
+     */
+    private static final int MAX_N_IMMEDIATE_RETRIES = 2;
+
     /**
      * OpenAI GPT model parameters.
      */
@@ -37,6 +57,30 @@ public class GPTClusterLabeler
     private static final double PRESENCE_PENALTY = 0.3;
     private static final int MAX_TOKENS_COMPLETION = 320;
 
+    /**
+     * Request hedging parameters.
+     */
+    private static final int HEDGING_LATENCY_WINDOW = 200;
+    private static final int HEDGING_MIN_N_LATENCIES = 20;
+    private static final double HEDGING_LATENCY_PERCENTILE = 0.9;
+    private static final double HEDGING_MAX_EXTRA_REQUEST_RATE = 0.1;
+
+    /**
+     * Default maximum number of concurrent requests.
+     */
+    public static final int DEFAULT_MAX_CONCURRENCY = 8;
+
+    /**
+     * Default maximum number of attempts to create a labeling, where zero
+     * means that the number of attempts is unlimited.
+     */
+    public static final int DEFAULT_MAX_N_ATTEMPTS = 0;
+
+    /**
+     * HTTP status code of requests rejected because of rate limiting.
+     */
+    private static final int HTTP_STATUS_TOO_MANY_REQUESTS = 429;
+
     /**
      * OpenAI GPT system prompt message.
      */
@@ -56,13 +100,50 @@ public class GPTClusterLabeler
     /**
      * OpenAI API wrapper.
      */
-    private static OpenAiService OpenAIService;
+    private OpenAiService openAIService;
 
     /**
      * OpenAI GPT model.
      */
     private GPTModel model;
 
+    /**
+     * Indicates whether completions are streamed.
+     */
+    private boolean streaming;
+
+    /**
+     * Indicates whether requests are hedged.
+     */
+    private boolean hedging;
+
+    /**
+     * Executor of hedged requests.
+     */
+    private ExecutorService hedgingExecutor;
+
+    /**
+     * Tracker of the latencies of recent requests.
+     */
+    private LatencyTracker latencyTracker = new LatencyTracker(HEDGING_LATENCY_WINDOW);
+
+    /**
+     * Number of hedged requests and number of extra requests fired to hedge them.
+     */
+    private AtomicLong nHedgedRequests = new AtomicLong();
+    private AtomicLong nExtraRequests = new AtomicLong();
+
+    /**
+     * Limiter of the number of concurrent requests.
+     */
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    /**
+     * Maximum number of attempts to create a labeling, or zero if the number
+     * of attempts is unlimited.
+     */
+    private int maxNAttempts;
+
     /**
      * Constructs a GPT cluster labeler.
      * 
@@ -71,8 +152,114 @@ public class GPTClusterLabeler
      */
     public GPTClusterLabeler(String apiKey, GPTModel model)
     {
-        OpenAIService = new OpenAiService(apiKey, Duration.ofSeconds(OPENAI_API_TIMEOUT));
+        this(apiKey, model, false);
+    }
+
+    /**
+     * Constructs a GPT cluster labeler.
+     *
+     * <p>
+     * If completions are streamed, the labeling is parsed while it is being
+     * received. The request is cancelled as soon as the labeling is complete
+     * or the response goes off-schema, in which case the request is retried
+     * immediately. At most two immediate retries are made per labeling.
+     * Further retries are made after the usual delay between retries.
+     * </p>
+     * 
+     * @param apiKey    OpenAI API key
+     * @param model     OpenAI GPT model
+     * @param streaming Indicates whether completions are streamed
+     */
+    public GPTClusterLabeler(String apiKey, GPTModel model, boolean streaming)
+    {
+        this(apiKey, model, streaming, false);
+    }
+
+    /**
+     * Constructs a GPT cluster labeler.
+     *
+     * <p>
+     * If requests are hedged, a duplicate request is fired when a request
+     * takes longer than the 90th percentile of the latencies of recent
+     * requests, measured from the moment the request is started within the
+     * concurrency limit. A duplicate request is fired only if the concurrency
+     * limit allows it to start immediately. The first valid response is used
+     * and the other request is cancelled. At most one extra request is fired
+     * per ten hedged requests.
+     * </p>
+     *
+     * @param apiKey    OpenAI API key
+     * @param model     OpenAI GPT model
+     * @param streaming Indicates whether completions are streamed
+     * @param hedging   Indicates whether requests are hedged
+     */
+    public GPTClusterLabeler(String apiKey, GPTModel model, boolean streaming, boolean hedging)
+    {
+        this(apiKey, model, streaming, hedging, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /**
+     * Constructs a GPT cluster labeler.
+     *
+     * <p>
+     * The number of concurrent requests, including hedged requests, starts
+     * at one and adapts to the rate limits of the OpenAI API: it grows while
+     * requests succeed with a stable latency and shrinks when requests are
+     * rate limited, time out, or show a latency spike.
+     * </p>
+     *
+     * @param apiKey         OpenAI API key
+     * @param model          OpenAI GPT model
+     * @param streaming      Indicates whether completions are streamed
+     * @param hedging        Indicates whether requests are hedged
+     * @param maxConcurrency Maximum number of concurrent requests
+     */
+    public GPTClusterLabeler(String apiKey, GPTModel model, boolean streaming, boolean hedging, int maxConcurrency)
+    {
+        this(apiKey, model, streaming, hedging, maxConcurrency, DEFAULT_MAX_N_ATTEMPTS);
+    }
+
+    /**
+     * Constructs a GPT cluster labeler.
+     *
+     * <p>
+     * Failed requests are retried. If the maximum number of attempts is
+     * reached, a runtime exception is thrown. If the maximum number of
+     * attempts is zero, requests are retried until they succeed.
+     * </p>
+     *
+     * @param apiKey         OpenAI API key
+     * @param model          OpenAI GPT model
+     * @param streaming      Indicates whether completions are streamed
+     * @param hedging        Indicates whether requests are hedged
+     * @param maxConcurrency Maximum number of concurrent requests
+     * @param maxNAttempts   Maximum number of attempts to create a labeling
+     */
+    public GPTClusterLabeler(String apiKey, GPTModel model, boolean streaming, boolean hedging, int maxConcurrency, int maxNAttempts)
+    {
+        openAIService = new OpenAiService(apiKey, Duration.ofSeconds(OPENAI_API_TIMEOUT));
         this.model = model;
+        this.streaming = streaming;
+        this.hedging = hedging;
+        this.maxNAttempts = maxNAttempts;
+        concurrencyLimiter = new ConcurrencyLimiter(1, maxConcurrency);
+        if (hedging)
+            hedgingExecutor = Executors.newCachedThreadPool(runnable ->
+            {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    /**
+     * Returns the current limit of the number of concurrent requests.
+     *
+     * @return Current concurrency limit
+     */
+    public int getConcurrencyLimit()
+    {
+        return concurrencyLimiter.getLimit();
     }
 
     /**
@@ -85,7 +272,7 @@ public class GPTClusterLabeler
     public ClusterLabeling getClusterLabeling(String pubTitles)
     {
         // Clean publication titles and use them as user message.
-        pubTitles = pubTitles.replaceAll("<[^>]*>", "");
+        pubTitles = PublicationTitlePreprocessor.stripMarkup(pubTitles);
 
         // Create prompt (system and user) messages.
         List<ChatMessage> messages = new ArrayList<>();
@@ -119,57 +306,315 @@ public class GPTClusterLabeler
                 .presencePenalty(PRESENCE_PENALTY)
                 .messages(messages)
                 .build();
-        StringBuilder builder = new StringBuilder();
-        ChatCompletionResult chatCompletionResult = null;
-        try
+        int nAttempts = 0;
+        int nImmediateRetries = 0;
+        while (true)
         {
-            chatCompletionResult = OpenAIService.createChatCompletion(chatCompletionRequest);
+            Exception exception;
+            try
+            {
+                return hedging ? hedgeClusterLabeling(chatCompletionRequest) : timeClusterLabeling(chatCompletionRequest);
+            }
+            catch (JSONException e)
+            {
+                e.printStackTrace();
+                exception = e;
+            }
+            catch (Exception e)
+            {
+                System.out.println(e.getClass());
+                System.out.println(e.getCause());
+                System.out.println(e.getMessage());
+                if (!(e instanceof RuntimeException && "java.net.SocketTimeoutException: timeout".equals(e.getMessage())))
+                    e.printStackTrace();
+                exception = e;
+            }
+            nAttempts++;
+            if ((maxNAttempts > 0) && (nAttempts >= maxNAttempts))
+                throw new RuntimeException("Unable to create labeling in " + nAttempts + " attempts: " + exception.getMessage(), exception);
+            if ((exception instanceof JSONException) && streaming && (nImmediateRetries < MAX_N_IMMEDIATE_RETRIES))
+            {
+                // Retry immediately, since the response was malformed rather than delayed.
+                nImmediateRetries++;
+                System.out.print("Retrying... ");
+                continue;
+            }
+            try
+            {
+                Thread.sleep(OPENAI_API_TIMEOUT_SLEEP * 1000);
+            }
+            catch (InterruptedException ie)
+            {
+                throw new RuntimeException("Unexpected interrupt", ie);
+            }
         }
-        catch (Exception e)
+    }
+
+    /**
+     * Requests a cluster labeling and fires a duplicate request if the
+     * request takes unusually long.
+     *
+     * <p>
+     * An exception is thrown only if all requests fail.
+     * </p>
+     *
+     * @param chatCompletionRequest Chat completion request
+     *
+     * @return Cluster labeling
+     *
+     * @throws Exception Exception thrown by the last failing request
+     */
+    private ClusterLabeling hedgeClusterLabeling(ChatCompletionRequest chatCompletionRequest) throws Exception
+    {
+        CompletionService<ClusterLabeling> completionService = new ExecutorCompletionService<>(hedgingExecutor);
+        List<Future<ClusterLabeling>> futures = new ArrayList<>(2);
+        List<Long> startTimes = new ArrayList<>(2);
+        List<AtomicBoolean> permitsClaimed = new ArrayList<>(2);
+        try
         {
-            System.out.println(e.getClass());
-            System.out.println(e.getCause());
-            System.out.println(e.getMessage());
-            if (e instanceof RuntimeException && e.getMessage().equals("java.net.SocketTimeoutException: timeout"))
+            // Start the request within the concurrency limit before starting the hedging timer.
+            long startTime = concurrencyLimiter.acquire();
+            AtomicBoolean permitClaimed = new AtomicBoolean();
+            startTimes.add(startTime);
+            permitsClaimed.add(permitClaimed);
+            futures.add(completionService.submit(() -> timeClusterLabeling(chatCompletionRequest, startTime, permitClaimed)));
+            nHedgedRequests.incrementAndGet();
+            Future<ClusterLabeling> future = null;
+            if (latencyTracker.getNLatencies() >= HEDGING_MIN_N_LATENCIES)
             {
-                try
-                {
-                    Thread.sleep(OPENAI_API_TIMEOUT_SLEEP * 1000);
-                }
-                catch (InterruptedException ie)
+                future = completionService.poll(latencyTracker.getPercentile(HEDGING_LATENCY_PERCENTILE), TimeUnit.MILLISECONDS);
+                if ((future == null) && reserveExtraRequest())
                 {
-                    throw new RuntimeException("Unexpected interrupt", ie);
+                    long extraStartTime = concurrencyLimiter.tryAcquire();
+                    if (extraStartTime >= 0)
+                    {
+                        System.out.print("Hedging request... ");
+                        AtomicBoolean extraPermitClaimed = new AtomicBoolean();
+                        startTimes.add(extraStartTime);
+                        permitsClaimed.add(extraPermitClaimed);
+                        futures.add(completionService.submit(() -> timeClusterLabeling(chatCompletionRequest, extraStartTime, extraPermitClaimed)));
+                    }
+                    else
+                        nExtraRequests.decrementAndGet();
                 }
-                return getClusterLabeling(pubTitles);
             }
-            else
+
+            // Return the first valid labeling.
+            int nCompletedRequests = 0;
+            while (true)
             {
-                e.printStackTrace();
+                if (future == null)
+                    future = completionService.take();
+                nCompletedRequests++;
                 try
                 {
-                    Thread.sleep(OPENAI_API_TIMEOUT_SLEEP * 1000);
+                    return future.get();
                 }
-                catch (InterruptedException ie)
+                catch (ExecutionException e)
                 {
-                    throw new RuntimeException("Unexpected interrupt", ie);
+                    if (nCompletedRequests == futures.size())
+                    {
+                        if (e.getCause() instanceof Exception)
+                            throw (Exception)e.getCause();
+                        throw e;
+                    }
                 }
-                return getClusterLabeling(pubTitles);
+                future = null;
             }
         }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Unexpected interrupt", e);
+        }
+        finally
+        {
+            // Release the permits of requests that were cancelled before they started.
+            for (Future<ClusterLabeling> future : futures)
+                future.cancel(true);
+            for (int i = 0; i < permitsClaimed.size(); i++)
+                if (permitsClaimed.get(i).compareAndSet(false, true))
+                    concurrencyLimiter.releaseFailure(startTimes.get(i));
+        }
+    }
+
+    /**
+     * Reserves an extra request within the maximum rate of extra requests.
+     *
+     * @return Whether an extra request has been reserved
+     */
+    private boolean reserveExtraRequest()
+    {
+        while (true)
+        {
+            long nExtraRequests = this.nExtraRequests.get();
+            if (nExtraRequests >= HEDGING_MAX_EXTRA_REQUEST_RATE * nHedgedRequests.get())
+                return false;
+            if (this.nExtraRequests.compareAndSet(nExtraRequests, nExtraRequests + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Requests a cluster labeling within the concurrency limit and tracks the
+     * latency of the request.
+     *
+     * @param chatCompletionRequest Chat completion request
+     *
+     * @return Cluster labeling
+     */
+    private ClusterLabeling timeClusterLabeling(ChatCompletionRequest chatCompletionRequest)
+    {
+        long startTime;
+        try
+        {
+            startTime = concurrencyLimiter.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Unexpected interrupt", e);
+        }
+        return timeClusterLabeling(chatCompletionRequest, startTime);
+    }
+
+    /**
+     * Requests a cluster labeling that has been started within the
+     * concurrency limit and tracks the latency of the request, provided that
+     * the permit of the request has not been claimed yet.
+     *
+     * <p>
+     * The permit is claimed either by this method or by the hedging thread
+     * when it cancels a request that has not started yet, so that the permit
+     * is released exactly once.
+     * </p>
+     *
+     * @param chatCompletionRequest Chat completion request
+     * @param startTime             Start time of the request
+     * @param permitClaimed         Indicates whether the permit has been claimed
+     *
+     * @return Cluster labeling
+     */
+    private ClusterLabeling timeClusterLabeling(ChatCompletionRequest chatCompletionRequest, long startTime, AtomicBoolean permitClaimed)
+    {
+        if (!permitClaimed.compareAndSet(false, true))
+            throw new CancellationException("Request was cancelled before it started.");
+        return timeClusterLabeling(chatCompletionRequest, startTime);
+    }
+
+    /**
+     * Requests a cluster labeling that has been started within the
+     * concurrency limit and tracks the latency of the request.
+     *
+     * @param chatCompletionRequest Chat completion request
+     * @param startTime             Start time of the request
+     *
+     * @return Cluster labeling
+     */
+    private ClusterLabeling timeClusterLabeling(ChatCompletionRequest chatCompletionRequest, long startTime)
+    {
+        try
+        {
+            ClusterLabeling clusterLabeling = streaming ? streamClusterLabeling(chatCompletionRequest) : requestClusterLabeling(chatCompletionRequest);
+            latencyTracker.addLatency(System.currentTimeMillis() - startTime);
+            concurrencyLimiter.releaseSuccess(startTime);
+            return clusterLabeling;
+        }
+        catch (RuntimeException e)
+        {
+            if (isOverloaded(e))
+                concurrencyLimiter.releaseOverloaded(startTime);
+            else
+                concurrencyLimiter.releaseFailure(startTime);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether a request failed because of rate limiting or a timeout.
+     *
+     * @param e Exception thrown by the request
+     *
+     * @return Whether the request failed because of rate limiting or a timeout
+     */
+    private static boolean isOverloaded(Throwable e)
+    {
+        for (Throwable cause = e; cause != null; cause = (cause.getCause() != cause) ? cause.getCause() : null)
+            if (((cause instanceof OpenAiHttpException) && (((OpenAiHttpException)cause).statusCode == HTTP_STATUS_TOO_MANY_REQUESTS))
+                    || (cause instanceof SocketTimeoutException))
+                return true;
+        return false;
+    }
+
+    /**
+     * Requests a cluster labeling and waits for the full completion.
+     *
+     * @param chatCompletionRequest Chat completion request
+     *
+     * @return Cluster labeling
+     */
+    private ClusterLabeling requestClusterLabeling(ChatCompletionRequest chatCompletionRequest)
+    {
+        StringBuilder builder = new StringBuilder();
+        ChatCompletionResult chatCompletionResult = openAIService.createChatCompletion(chatCompletionRequest);
         chatCompletionResult.getChoices().forEach(choice ->
         {
             builder.append(choice.getMessage().getContent());
         });
-        String response = builder.toString();
+        return parseClusterLabeling(builder.toString());
+    }
 
-        // Parse API response.
-        ClusterLabeling clusterLabeling = null;
+    /**
+     * Requests a cluster labeling as a stream of completion chunks.
+     *
+     * <p>
+     * The labeling is parsed incrementally. The stream is cancelled as soon as
+     * all labeling fields have been received or the response goes off-schema.
+     * </p>
+     *
+     * @param chatCompletionRequest Chat completion request
+     *
+     * @return Cluster labeling
+     */
+    private ClusterLabeling streamClusterLabeling(ChatCompletionRequest chatCompletionRequest)
+    {
+        ClusterLabelingStreamParser parser = new ClusterLabelingStreamParser();
+        openAIService.streamChatCompletion(chatCompletionRequest)
+                .takeUntil(chunk ->
+                {
+                    chunk.getChoices().forEach(choice ->
+                    {
+                        if ((choice.getMessage() != null) && (choice.getMessage().getContent() != null))
+                            parser.append(choice.getMessage().getContent());
+                    });
+                    return parser.isComplete() || parser.isOffSchema();
+                })
+                .ignoreElements()
+                .blockingAwait();
+        if (!parser.isComplete())
+            throw new JSONException("Response does not match the labeling schema: " + parser.getResponse());
+        return parseClusterLabeling(parser.getJSON());
+    }
+
+    /**
+     * Parses a cluster labeling from an API response. Field names are matched
+     * case-insensitively.
+     *
+     * @param response API response
+     *
+     * @return Cluster labeling
+     */
+    private static ClusterLabeling parseClusterLabeling(String response)
+    {
         try
         {
             Matcher matcher = JSON_CODE_BLOCK_PATTERN.matcher(response);
             if (matcher.find())
                 response = matcher.group(2);
-            JSONObject jsonResponse = new JSONObject(response);
+            JSONObject jsonResponse = new JSONObject();
+            JSONObject json = new JSONObject(response);
+            for (String key : json.keySet())
+                jsonResponse.put(key.toLowerCase(Locale.ROOT), json.get(key));
             String shortLabel = jsonResponse.optString("short label");
             if (shortLabel.isEmpty())
                 shortLabel = jsonResponse.optString("short_label");
@@ -185,23 +630,11 @@ public class GPTClusterLabeler
             String wikipediaPage = jsonResponse.optString("wikipedia page");
             if (wikipediaPage.isEmpty())
                 wikipediaPage = jsonResponse.optString("wikipedia_page");
-            clusterLabeling = new ClusterLabeling(shortLabel, longLabel, keywords, summary, wikipediaPage);
+            return new ClusterLabeling(shortLabel, longLabel, keywords, summary, wikipediaPage);
         }
         catch (Exception e)
         {
-            e.printStackTrace();
-            System.out.println(response);
-            try
-            {
-                Thread.sleep(OPENAI_API_TIMEOUT_SLEEP * 1000);
-            }
-            catch (InterruptedException ie)
-            {
-                throw new RuntimeException("Unexpected interrupt", ie);
-            }
-            return getClusterLabeling(pubTitles);
+            throw new JSONException("Unable to parse response: " + response, e);
         }
-
-        return clusterLabeling;
     }
 }
@@ -0,0 +1,77 @@
+package nl.cwts.publicationclassificationlabeling;
+
+import java.util.Arrays;
+
+/**
+ * Tracker of the latencies of the most recent requests.
+ *
+ * <p>
+ * All methods in this class are thread-safe.
+ * </p>
+ *
+ * @author agent
+ */
+class LatencyTracker
+{
+    /**
+     * Latencies of the most recent requests in milliseconds.
+     */
+    private long[] latencies;
+
+    /**
+     * Number of latencies that have been added.
+     */
+    private long nLatencies;
+
+    /**
+     * Constructs a latency tracker.
+     *
+     * @param windowSize Number of most recent latencies that are tracked
+     */
+    public LatencyTracker(int windowSize)
+    {
+        latencies = new long[windowSize];
+    }
+
+    /**
+     * Adds the latency of a request.
+     *
+     * @param latency Latency in milliseconds
+     */
+    public synchronized void addLatency(long latency)
+    {
+        latencies[(int)(nLatencies % latencies.length)] = latency;
+        nLatencies++;
+    }
+
+    /**
+     * Returns the number of tracked latencies.
+     *
+     * @return Number of tracked latencies
+     */
+    public synchronized int getNLatencies()
+    {
+        return (int)Math.min(nLatencies, latencies.length);
+    }
+
+    /**
+     * Returns a percentile of the tracked latencies.
+     *
+     * @param percentile Percentile (between 0 and 1)
+     *
+     * @return Latency in milliseconds, or -1 if no latencies are tracked
+     */
+    public long getPercentile(double percentile)
+    {
+        long[] sortedLatencies;
+        synchronized (this)
+        {
+            sortedLatencies = Arrays.copyOf(latencies, getNLatencies());
+        }
+        if (sortedLatencies.length == 0)
+            return -1;
+        Arrays.sort(sortedLatencies);
+        int index = (int)Math.ceil(percentile * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))];
+    }
+}
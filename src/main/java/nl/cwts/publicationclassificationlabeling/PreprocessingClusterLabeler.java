@@ -0,0 +1,51 @@
+package nl.cwts.publicationclassificationlabeling;
+
+/**
+ * Cluster labeler that preprocesses the publication titles of a cluster before
+ * passing them to another cluster labeler.
+ *
+ * <p>
+ * When used together with a {@link RoutingClusterLabeler}, this labeler should
+ * be placed behind the router, so that clusters are routed based on their
+ * original publication titles and only the publication titles sent to the GPT
+ * cluster labeler are preprocessed.
+ * </p>
+ *
+ * @author agent
+ */
+public class PreprocessingClusterLabeler implements ClusterLabeler
+{
+    /**
+     * Cluster labeler.
+     */
+    private ClusterLabeler clusterLabeler;
+
+    /**
+     * Publication title preprocessor.
+     */
+    private PublicationTitlePreprocessor pubTitlePreprocessor;
+
+    /**
+     * Constructs a preprocessing cluster labeler.
+     *
+     * @param clusterLabeler       Cluster labeler
+     * @param pubTitlePreprocessor Publication title preprocessor
+     */
+    public PreprocessingClusterLabeler(ClusterLabeler clusterLabeler, PublicationTitlePreprocessor pubTitlePreprocessor)
+    {
+        this.clusterLabeler = clusterLabeler;
+        this.pubTitlePreprocessor = pubTitlePreprocessor;
+    }
+
+    /**
+     * Returns the labeling of a cluster based on the titles of the publications assigned to the cluster.
+     *
+     * @param pubTitles Publication titles
+     *
+     * @return Cluster labeling
+     */
+    public ClusterLabeling getClusterLabeling(String pubTitles)
+    {
+        return clusterLabeler.getClusterLabeling(pubTitlePreprocessor.preprocess(pubTitles));
+    }
+}
@@ -0,0 +1,243 @@
+package nl.cwts.publicationclassificationlabeling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.theokanning.openai.utils.TikTokensUtil;
+
+/**
+ * Preprocessor of the publication titles of a cluster before they are used in
+ * a prompt.
+ *
+ * <p>
+ * Preprocessing consists of three steps. First, markup is removed from the
+ * publication titles. Second, duplicate publication titles are removed, where
+ * publication titles are considered duplicates if they are equal after
+ * converting them to lower case and ignoring all characters other than letters
+ * and digits. Third, if the remaining publication titles exceed a given number
+ * of tokens, a representative subset of the publication titles is selected.
+ * Publication titles are selected greedily, each time selecting the
+ * publication title whose words that are frequent in the cluster and not yet
+ * covered by the selected publication titles yield the highest weight per
+ * token. The selected publication titles keep their original order.
+ * </p>
+ *
+ * @author agent
+ */
+public class PublicationTitlePreprocessor
+{
+    /**
+     * Default maximum number of tokens of the preprocessed publication titles.
+     */
+    public static final int DEFAULT_MAX_TOKENS = 2000;
+
+    /**
+     * Publication title separator pattern.
+     */
+    private static final Pattern PUB_TITLE_SEPARATOR_PATTERN = Pattern.compile(Pattern.quote(ClusterLabeler.PUB_TITLE_SEPARATOR));
+
+    /**
+     * Minimum length of words used to select representative publication titles.
+     */
+    private static final int MIN_WORD_LENGTH = 3;
+
+    /**
+     * OpenAI GPT model.
+     */
+    private GPTModel model;
+
+    /**
+     * Maximum number of tokens of the preprocessed publication titles.
+     */
+    private int maxTokens;
+
+    /**
+     * Constructs a publication title preprocessor.
+     *
+     * @param model     OpenAI GPT model
+     * @param maxTokens Maximum number of tokens of the preprocessed publication titles
+     */
+    public PublicationTitlePreprocessor(GPTModel model, int maxTokens)
+    {
+        this.model = model;
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * Preprocesses the publication titles of a cluster.
+     *
+     * @param pubTitles Publication titles
+     *
+     * @return Preprocessed publication titles
+     */
+    public String preprocess(String pubTitles)
+    {
+        // Remove markup and split publication titles.
+        List<String> titles = new ArrayList<>();
+        for (String title : PUB_TITLE_SEPARATOR_PATTERN.split(stripMarkup(pubTitles)))
+        {
+            title = title.trim();
+            if (!title.isEmpty())
+                titles.add(title);
+        }
+
+        // Remove duplicate publication titles.
+        List<String> uniqueTitles = new ArrayList<>(titles.size());
+        List<String> normalizedUniqueTitles = new ArrayList<>(titles.size());
+        Set<String> normalizedTitles = new HashSet<>();
+        for (String title : titles)
+        {
+            String normalizedTitle = normalize(title);
+            if (normalizedTitles.add(normalizedTitle))
+            {
+                uniqueTitles.add(title);
+                normalizedUniqueTitles.add(normalizedTitle);
+            }
+        }
+
+        // Select representative publication titles.
+        int nTitles = uniqueTitles.size();
+        int[] nTokens = new int[nTitles];
+        int totalNTokens = 0;
+        for (int i = 0; i < nTitles; i++)
+        {
+            nTokens[i] = TikTokensUtil.tokens(model.type, uniqueTitles.get(i) + ClusterLabeler.PUB_TITLE_SEPARATOR);
+            totalNTokens += nTokens[i];
+        }
+        boolean[] selected = new boolean[nTitles];
+        if (totalNTokens <= maxTokens)
+            Arrays.fill(selected, true);
+        else
+            selectTitles(normalizedUniqueTitles, nTokens, selected);
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < nTitles; i++)
+            if (selected[i])
+            {
+                if (builder.length() > 0)
+                    builder.append(ClusterLabeler.PUB_TITLE_SEPARATOR);
+                builder.append(uniqueTitles.get(i));
+            }
+        return builder.toString();
+    }
+
+    /**
+     * Removes markup from a string in a single linear scan.
+     *
+     * <p>
+     * Everything from a '&lt;' character up to and including the next '&gt;'
+     * character is removed. A '&lt;' character without a subsequent '&gt;'
+     * character is kept.
+     * </p>
+     *
+     * @param s String
+     *
+     * @return String without markup
+     */
+    public static String stripMarkup(String s)
+    {
+        int start = s.indexOf('<');
+        if (start < 0)
+            return s;
+        StringBuilder builder = new StringBuilder(s.length());
+        int position = 0;
+        while (start >= 0)
+        {
+            int end = s.indexOf('>', start + 1);
+            if (end < 0)
+                break;
+            builder.append(s, position, start);
+            position = end + 1;
+            start = s.indexOf('<', position);
+        }
+        builder.append(s, position, s.length());
+        return builder.toString();
+    }
+
+    /**
+     * Selects representative publication titles within the maximum number of tokens.
+     *
+     * @param normalizedTitles Normalized publication titles
+     * @param nTokens          Number of tokens of each publication title
+     * @param selected         Indicates for each publication title whether it is selected
+     */
+    private void selectTitles(List<String> normalizedTitles, int[] nTokens, boolean[] selected)
+    {
+        // Determine the words of each publication title and their frequency in the cluster.
+        int nTitles = normalizedTitles.size();
+        List<Set<String>> titleWords = new ArrayList<>(nTitles);
+        Map<String, Integer> wordFrequency = new HashMap<>();
+        for (String normalizedTitle : normalizedTitles)
+        {
+            Set<String> words = new HashSet<>();
+            for (String word : normalizedTitle.split(" "))
+                if ((word.length() >= MIN_WORD_LENGTH) && words.add(word))
+                    wordFrequency.merge(word, 1, Integer::sum);
+            titleWords.add(words);
+        }
+
+        // Select publication titles greedily.
+        Map<String, Integer> wordCoverage = new HashMap<>();
+        int remainingNTokens = maxTokens;
+        while (true)
+        {
+            int bestTitle = -1;
+            double bestGain = -1;
+            for (int i = 0; i < nTitles; i++)
+                if (!selected[i] && (nTokens[i] <= remainingNTokens))
+                {
+                    double gain = 0;
+                    for (String word : titleWords.get(i))
+                        gain += (double)wordFrequency.get(word) / (1 + wordCoverage.getOrDefault(word, 0));
+                    gain /= Math.max(nTokens[i], 1);
+                    if (gain > bestGain)
+                    {
+                        bestTitle = i;
+                        bestGain = gain;
+                    }
+                }
+            if (bestTitle < 0)
+                break;
+            selected[bestTitle] = true;
+            remainingNTokens -= nTokens[bestTitle];
+            for (String word : titleWords.get(bestTitle))
+                wordCoverage.merge(word, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Normalizes a publication title by converting it to lower case and by
+     * replacing each sequence of characters other than letters and digits by
+     * a single space.
+     *
+     * @param title Publication title
+     *
+     * @return Normalized publication title
+     */
+    private static String normalize(String title)
+    {
+        StringBuilder builder = new StringBuilder(title.length());
+        boolean space = false;
+        for (int i = 0; i < title.length(); i++)
+        {
+            char c = title.charAt(i);
+            if (Character.isLetterOrDigit(c))
+            {
+                if (space && (builder.length() > 0))
+                    builder.append(' ');
+                builder.append(c);
+                space = false;
+            }
+            else
+                space = true;
+        }
+        return builder.toString().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,95 @@
+package nl.cwts.publicationclassificationlabeling;
+
+/**
+ * Cluster labeler that routes each cluster either to a GPT cluster labeler or
+ * to a local cluster labeler.
+ *
+ * <p>
+ * Clusters with fewer publication titles than a given minimum are labeled
+ * locally. All other clusters are labeled using the GPT cluster labeler.
+ * </p>
+ *
+ * @author agent
+ */
+public class RoutingClusterLabeler implements ClusterLabeler
+{
+    /**
+     * GPT cluster labeler.
+     */
+    private ClusterLabeler gptClusterLabeler;
+
+    /**
+     * Local cluster labeler.
+     */
+    private ClusterLabeler localClusterLabeler;
+
+    /**
+     * Minimum number of publication titles for a cluster to be labeled using
+     * the GPT cluster labeler.
+     */
+    private int minNPubTitlesGPT;
+
+    /**
+     * Constructs a routing cluster labeler.
+     *
+     * @param gptClusterLabeler   GPT cluster labeler
+     * @param localClusterLabeler Local cluster labeler
+     * @param minNPubTitlesGPT    Minimum number of publication titles for a
+     *                            cluster to be labeled using the GPT cluster
+     *                            labeler
+     */
+    public RoutingClusterLabeler(ClusterLabeler gptClusterLabeler, ClusterLabeler localClusterLabeler, int minNPubTitlesGPT)
+    {
+        this.gptClusterLabeler = gptClusterLabeler;
+        this.localClusterLabeler = localClusterLabeler;
+        this.minNPubTitlesGPT = minNPubTitlesGPT;
+    }
+
+    /**
+     * Returns the labeling of a cluster based on the titles of the publications assigned to the cluster.
+     *
+     * @param pubTitles Publication titles
+     *
+     * @return Cluster labeling
+     */
+    public ClusterLabeling getClusterLabeling(String pubTitles)
+    {
+        if (isLabeledLocally(pubTitles))
+            return localClusterLabeler.getClusterLabeling(pubTitles);
+        return gptClusterLabeler.getClusterLabeling(pubTitles);
+    }
+
+    /**
+     * Returns whether a cluster is labeled using the local cluster labeler.
+     *
+     * @param pubTitles Publication titles
+     *
+     * @return Whether the cluster is labeled locally
+     */
+    public boolean isLabeledLocally(String pubTitles)
+    {
+        return countPubTitles(pubTitles) < minNPubTitlesGPT;
+    }
+
+    /**
+     * Returns the number of publication titles in a string of concatenated
+     * publication titles.
+     *
+     * @param pubTitles Publication titles
+     *
+     * @return Number of publication titles
+     */
+    private static int countPubTitles(String pubTitles)
+    {
+        if (pubTitles.isEmpty())
+            return 0;
+        int nPubTitles = 1;
+        int index = pubTitles.indexOf(ClusterLabeler.PUB_TITLE_SEPARATOR);
+        while (index >= 0)
+        {
+            nPubTitles++;
+            index = pubTitles.indexOf(ClusterLabeler.PUB_TITLE_SEPARATOR, index + ClusterLabeler.PUB_TITLE_SEPARATOR.length());
+        }
+        return nPubTitles;
+    }
+}
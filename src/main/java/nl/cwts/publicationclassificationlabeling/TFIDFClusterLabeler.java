@@ -0,0 +1,301 @@
+package nl.cwts.publicationclassificationlabeling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Cluster labeler based on a class-based TF-IDF weighting of the phrases in
+ * the titles of the publications assigned to the clusters.
+ *
+ * <p>
+ * Candidate phrases are obtained by splitting the publication titles at stop
+ * words and punctuation marks and by taking all word sequences of at most
+ * three words within the resulting fragments. Multi-word phrases that occur
+ * only once in a cluster are ignored. The weight of a phrase in a cluster is
+ * given by
+ * </p>
+ *
+ * <pre>
+ * tf * log(1 + max(A, tf) / f) * n
+ * </pre>
+ *
+ * <p>
+ * where tf is the frequency of the phrase in the cluster, A is the average
+ * number of phrases per cluster, f is the frequency of the phrase in all
+ * clusters, and n is the number of words in the phrase. The first two factors
+ * are the usual class-based TF-IDF weight, except that A is replaced by tf if
+ * tf exceeds A. Otherwise, a phrase that occurs very frequently but only in
+ * one cluster would get an inverse frequency close to zero instead of log(2).
+ * The last factor boosts multi-word phrases. Each occurrence of a multi-word
+ * phrase is also an occurrence of each of its words, so single words would
+ * otherwise nearly always outrank the more specific and more informative
+ * phrases containing them. Labeling is performed entirely in-process and does
+ * not require access to the OpenAI API.
+ * </p>
+ *
+ * @author agent
+ */
+public class TFIDFClusterLabeler implements ClusterLabeler
+{
+    /**
+     * Phrase extraction parameters.
+     */
+    private static final int MAX_PHRASE_LENGTH = 3;
+    private static final int MIN_MULTI_WORD_PHRASE_FREQUENCY = 2;
+
+    /**
+     * Number of keywords.
+     */
+    private static final int N_KEYWORDS = 10;
+
+    /**
+     * Stop words.
+     */
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+        "a", "about", "above", "after", "against", "all", "along", "also", "am", "among", "an", "and", "any", "are", "around", "as", "at",
+        "be", "been", "before", "being", "between", "both", "but", "by", "can", "could", "did", "do", "does", "during", "each", "either",
+        "for", "from", "further", "had", "has", "have", "having", "how", "however", "i", "if", "in", "into", "is", "it", "its", "itself",
+        "more", "most", "much", "new", "no", "nor", "not", "of", "on", "one", "only", "or", "other", "our", "over", "per", "several",
+        "should", "so", "some", "such", "than", "that", "the", "their", "them", "then", "there", "these", "they", "this", "those",
+        "through", "to", "toward", "towards", "two", "under", "up", "upon", "us", "using", "versus", "very", "via", "vs", "was", "we",
+        "were", "what", "when", "where", "whether", "which", "while", "who", "whom", "why", "will", "with", "within", "without", "would",
+        "based", "case", "study", "studies", "approach", "approaches", "review", "use", "first", "novel"));
+
+    /**
+     * Frequency of each phrase in all clusters.
+     */
+    private Map<String, Integer> phraseFrequency;
+
+    /**
+     * Average number of phrases per cluster.
+     */
+    private double avgNPhrasesPerCluster;
+
+    /**
+     * Constructs a TF-IDF cluster labeler.
+     *
+     * <p>
+     * The phrase frequencies in all clusters are determined in parallel.
+     * </p>
+     *
+     * @param clusterPubTitles Publication titles of each cluster
+     */
+    public TFIDFClusterLabeler(ClusterPublicationTitles clusterPubTitles)
+    {
+        ConcurrentHashMap<String, Integer> phraseFrequency = new ConcurrentHashMap<>();
+        LongAdder nPhrases = new LongAdder();
+        int nClusters = IntStream.range(0, clusterPubTitles.getNClusters()).parallel().filter(clusterNo -> !clusterPubTitles.isEmpty(clusterNo)).map(clusterNo ->
+        {
+            Map<String, Integer> clusterPhraseFrequency = new HashMap<>();
+            extractPhrases(clusterPubTitles.getPublicationTitles(clusterNo), (phrase, surfaceForm) -> clusterPhraseFrequency.merge(phrase, 1, Integer::sum));
+            clusterPhraseFrequency.forEach((phrase, frequency) ->
+            {
+                phraseFrequency.merge(phrase, frequency, Integer::sum);
+                nPhrases.add(frequency);
+            });
+            return 1;
+        }).sum();
+        this.phraseFrequency = phraseFrequency;
+        avgNPhrasesPerCluster = (nClusters > 0) ? (nPhrases.doubleValue() / nClusters) : 0;
+    }
+
+    /**
+     * Returns the labeling of a cluster based on the titles of the publications assigned to the cluster.
+     *
+     * <p>
+     * The keywords are the highest weighted phrases, excluding phrases that
+     * are part of a higher weighted phrase or vice versa. The short label is
+     * the first keyword and the long label combines the first two keywords.
+     * No summary and Wikipedia page are provided. If the publication titles
+     * contain no candidate phrases, for instance because they consist of stop
+     * words only, the labels are empty and there are no keywords.
+     * </p>
+     *
+     * @param pubTitles Publication titles
+     *
+     * @return Cluster labeling
+     */
+    public ClusterLabeling getClusterLabeling(String pubTitles)
+    {
+        // Count phrases in publication titles.
+        Map<String, Integer> clusterPhraseFrequency = new HashMap<>();
+        Map<String, String> surfaceForms = new HashMap<>();
+        extractPhrases(pubTitles, (phrase, surfaceForm) ->
+        {
+            clusterPhraseFrequency.merge(phrase, 1, Integer::sum);
+            surfaceForms.putIfAbsent(phrase, surfaceForm);
+        });
+
+        // Weight phrases.
+        List<String> phrases = new ArrayList<>();
+        Map<String, Double> phraseWeights = new HashMap<>();
+        clusterPhraseFrequency.forEach((phrase, frequency) ->
+        {
+            int phraseLength = countWords(phrase);
+            if ((phraseLength > 1) && (frequency < MIN_MULTI_WORD_PHRASE_FREQUENCY))
+                return;
+            int totalFrequency = Math.max(phraseFrequency.getOrDefault(phrase, 0), frequency);
+            phrases.add(phrase);
+            phraseWeights.put(phrase, frequency * Math.log(1 + Math.max(avgNPhrasesPerCluster, frequency) / totalFrequency) * phraseLength);
+        });
+        phrases.sort((phrase1, phrase2) ->
+        {
+            int result = Double.compare(phraseWeights.get(phrase2), phraseWeights.get(phrase1));
+            return (result != 0) ? result : phrase1.compareTo(phrase2);
+        });
+
+        // Select keywords.
+        List<String> selectedPhrases = new ArrayList<>();
+        ArrayList<String> keywords = new ArrayList<>();
+        for (int i = 0; (i < phrases.size()) && (keywords.size() < N_KEYWORDS); i++)
+        {
+            String phrase = phrases.get(i);
+            boolean overlapping = false;
+            for (int j = 0; (j < selectedPhrases.size()) && !overlapping; j++)
+                overlapping = containsPhrase(selectedPhrases.get(j), phrase) || containsPhrase(phrase, selectedPhrases.get(j));
+            if (!overlapping)
+            {
+                selectedPhrases.add(phrase);
+                keywords.add(toTitleCase(surfaceForms.get(phrase)));
+            }
+        }
+
+        String shortLabel = keywords.isEmpty() ? "" : keywords.get(0);
+        String longLabel = (keywords.size() > 1) ? (keywords.get(0) + " and " + keywords.get(1)) : shortLabel;
+        return new ClusterLabeling(shortLabel, longLabel, keywords, "", "");
+    }
+
+    /**
+     * Extracts the candidate phrases from publication titles.
+     *
+     * @param pubTitles Publication titles
+     * @param consumer  Consumer of the normalized phrase and its surface form
+     */
+    private static void extractPhrases(String pubTitles, BiConsumer<String, String> consumer)
+    {
+        String text = PublicationTitlePreprocessor.stripMarkup(pubTitles);
+        List<String> fragment = new ArrayList<>();
+        int n = text.length();
+        int i = 0;
+        while (i < n)
+        {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c))
+            {
+                int start = i;
+                i++;
+                while ((i < n) && (Character.isLetterOrDigit(text.charAt(i)) || (((text.charAt(i) == '-') || (text.charAt(i) == '\'')) && (i + 1 < n) && Character.isLetterOrDigit(text.charAt(i + 1)))))
+                    i++;
+                String word = text.substring(start, i);
+                String normalizedWord = word.toLowerCase(Locale.ROOT);
+                if ((word.length() < 2) || STOP_WORDS.contains(normalizedWord) || !containsLetter(word))
+                {
+                    emitPhrases(fragment, consumer);
+                    fragment.clear();
+                }
+                else
+                    fragment.add(word);
+            }
+            else
+            {
+                if (!Character.isWhitespace(c))
+                {
+                    emitPhrases(fragment, consumer);
+                    fragment.clear();
+                }
+                i++;
+            }
+        }
+        emitPhrases(fragment, consumer);
+    }
+
+    /**
+     * Emits all phrases of at most the maximum phrase length in a fragment.
+     *
+     * @param fragment Words in the fragment
+     * @param consumer Consumer of the normalized phrase and its surface form
+     */
+    private static void emitPhrases(List<String> fragment, BiConsumer<String, String> consumer)
+    {
+        for (int i = 0; i < fragment.size(); i++)
+            for (int j = i + 1; (j <= fragment.size()) && (j - i <= MAX_PHRASE_LENGTH); j++)
+            {
+                String surfaceForm = String.join(" ", fragment.subList(i, j));
+                consumer.accept(surfaceForm.toLowerCase(Locale.ROOT), surfaceForm);
+            }
+    }
+
+    /**
+     * Returns whether a word contains at least one letter.
+     *
+     * @param word Word
+     *
+     * @return Whether the word contains a letter
+     */
+    private static boolean containsLetter(String word)
+    {
+        for (int i = 0; i < word.length(); i++)
+            if (Character.isLetter(word.charAt(i)))
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns the number of words in a phrase.
+     *
+     * @param phrase Phrase
+     *
+     * @return Number of words
+     */
+    private static int countWords(String phrase)
+    {
+        int nWords = 1;
+        for (int i = 0; i < phrase.length(); i++)
+            if (phrase.charAt(i) == ' ')
+                nWords++;
+        return nWords;
+    }
+
+    /**
+     * Returns whether a phrase contains another phrase as a sequence of whole words.
+     *
+     * @param phrase    Phrase
+     * @param subPhrase Sub-phrase
+     *
+     * @return Whether the phrase contains the sub-phrase
+     */
+    private static boolean containsPhrase(String phrase, String subPhrase)
+    {
+        return (" " + phrase + " ").contains(" " + subPhrase + " ");
+    }
+
+    /**
+     * Converts a phrase to Title Case while preserving the case of the remaining characters.
+     *
+     * @param phrase Phrase
+     *
+     * @return Phrase in Title Case
+     */
+    private static String toTitleCase(String phrase)
+    {
+        StringBuilder builder = new StringBuilder(phrase.length());
+        boolean startOfWord = true;
+        for (int i = 0; i < phrase.length(); i++)
+        {
+            char c = phrase.charAt(i);
+            builder.append(startOfWord ? Character.toTitleCase(c) : c);
+            startOfWord = (c == ' ') || (c == '-');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,366 @@
+package nl.cwts.publicationclassificationlabeling.run;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import nl.cwts.publicationclassificationlabeling.ClusterLabeling;
+
+/**
+ * Memory-mapped binary file containing a publication classification labeling.
+ *
+ * <p>
+ * The file is organized in columns. It starts with a header containing a magic
+ * number, a format version, the number of clusters, the number of keywords,
+ * the offset of the keyword dictionary index, and the offset of the index of
+ * each column. The keyword dictionary contains each distinct keyword once and
+ * is indexed by keyword ID. There is a column of short labels, long labels,
+ * keyword ID lists, summaries, and Wikipedia pages, each indexed by cluster
+ * number. Strings are stored as UTF-8 bytes prefixed by their length, where a
+ * length of -1 indicates a null string. Keyword ID lists are stored as
+ * integers prefixed by the number of keywords. An index is an array of
+ * absolute file offsets, where an offset of -1 indicates a cluster without a
+ * labeling. All integers are stored in big-endian byte order.
+ * </p>
+ *
+ * <p>
+ * The labeling of a cluster is looked up without parsing the rest of the
+ * file. All methods for reading a file are thread-safe.
+ * </p>
+ *
+ * @author agent
+ */
+public class ClusterLabelingBinaryFile
+{
+    /**
+     * Magic number ("PCLB").
+     */
+    static final int MAGIC_NUMBER = 0x50434C42;
+
+    /**
+     * Format version.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Column numbers.
+     */
+    static final int SHORT_LABEL_COLUMN = 0;
+    static final int LONG_LABEL_COLUMN = 1;
+    static final int KEYWORDS_COLUMN = 2;
+    static final int SUMMARY_COLUMN = 3;
+    static final int WIKIPEDIA_PAGE_COLUMN = 4;
+    static final int N_COLUMNS = 5;
+
+    /**
+     * Header size in bytes.
+     */
+    static final int HEADER_SIZE = (5 + N_COLUMNS) * Integer.BYTES;
+
+    /**
+     * Maximum number of UTF-8 bytes per UTF-16 character.
+     */
+    private static final int MAX_BYTES_PER_CHAR = 3;
+
+    /**
+     * Buffer containing the file.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Number of clusters.
+     */
+    private int nClusters;
+
+    /**
+     * Number of keywords in the keyword dictionary.
+     */
+    private int nKeywords;
+
+    /**
+     * Offset of the keyword dictionary index.
+     */
+    private int keywordIndexOffset;
+
+    /**
+     * Offset of the index of each column.
+     */
+    private int[] columnIndexOffsets = new int[N_COLUMNS];
+
+    /**
+     * Writes a publication classification labeling to a binary file.
+     *
+     * @param clusterLabelingFile Name of the cluster labeling file
+     * @param clusterLabeling     Cluster labelings
+     *
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(String clusterLabelingFile, ClusterLabeling[] clusterLabeling) throws IOException
+    {
+        int nClusters = clusterLabeling.length;
+        int[] columnIndexOffsets = new int[N_COLUMNS];
+        int keywordIndexOffset;
+        HashMap<String, Integer> keywordIds = new HashMap<>();
+        ArrayList<String> keywords = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(clusterLabelingFile))))
+        {
+            StringEncoder encoder = new StringEncoder();
+            int[] offsets = new int[nClusters];
+
+            // Write placeholder for header.
+            for (int i = 0; i < HEADER_SIZE; i++)
+                out.write(0);
+
+            // Write columns.
+            for (int column = 0; column < N_COLUMNS; column++)
+            {
+                for (int i = 0; i < nClusters; i++)
+                {
+                    if (clusterLabeling[i] == null)
+                    {
+                        offsets[i] = -1;
+                        continue;
+                    }
+                    offsets[i] = getOffset(out);
+                    switch (column)
+                    {
+                        case SHORT_LABEL_COLUMN:
+                            encoder.write(out, clusterLabeling[i].shortLabel);
+                            break;
+                        case LONG_LABEL_COLUMN:
+                            encoder.write(out, clusterLabeling[i].longLabel);
+                            break;
+                        case KEYWORDS_COLUMN:
+                            out.writeInt(clusterLabeling[i].keywords.size());
+                            for (String keyword : clusterLabeling[i].keywords)
+                            {
+                                Integer keywordId = keywordIds.get(keyword);
+                                if (keywordId == null)
+                                {
+                                    keywordId = keywords.size();
+                                    keywordIds.put(keyword, keywordId);
+                                    keywords.add(keyword);
+                                }
+                                out.writeInt(keywordId);
+                            }
+                            break;
+                        case SUMMARY_COLUMN:
+                            encoder.write(out, clusterLabeling[i].summary);
+                            break;
+                        case WIKIPEDIA_PAGE_COLUMN:
+                            encoder.write(out, clusterLabeling[i].wikipediaPage);
+                            break;
+                    }
+                }
+                columnIndexOffsets[column] = getOffset(out);
+                for (int i = 0; i < nClusters; i++)
+                    out.writeInt(offsets[i]);
+            }
+
+            // Write keyword dictionary.
+            int nKeywords = keywords.size();
+            offsets = new int[nKeywords];
+            for (int i = 0; i < nKeywords; i++)
+            {
+                offsets[i] = getOffset(out);
+                encoder.write(out, keywords.get(i));
+            }
+            keywordIndexOffset = getOffset(out);
+            for (int i = 0; i < nKeywords; i++)
+                out.writeInt(offsets[i]);
+            getOffset(out); // Check the size of the file.
+        }
+
+        // Write header.
+        try (RandomAccessFile file = new RandomAccessFile(clusterLabelingFile, "rw"))
+        {
+            file.writeInt(MAGIC_NUMBER);
+            file.writeInt(VERSION);
+            file.writeInt(nClusters);
+            file.writeInt(keywords.size());
+            file.writeInt(keywordIndexOffset);
+            for (int i = 0; i < N_COLUMNS; i++)
+                file.writeInt(columnIndexOffsets[i]);
+        }
+    }
+
+    /**
+     * Opens a binary file containing a publication classification labeling.
+     *
+     * @param clusterLabelingFile Name of the cluster labeling file
+     *
+     * @throws IOException If the file cannot be read or has an invalid format
+     */
+    public ClusterLabelingBinaryFile(String clusterLabelingFile) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(clusterLabelingFile), StandardOpenOption.READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("File is too large.");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if ((buffer.capacity() < HEADER_SIZE) || (buffer.getInt(0) != MAGIC_NUMBER))
+            throw new IOException("File is not a binary cluster labeling file.");
+        if (buffer.getInt(Integer.BYTES) != VERSION)
+            throw new IOException("Unsupported file format version " + buffer.getInt(Integer.BYTES) + ".");
+        nClusters = buffer.getInt(2 * Integer.BYTES);
+        nKeywords = buffer.getInt(3 * Integer.BYTES);
+        keywordIndexOffset = buffer.getInt(4 * Integer.BYTES);
+        for (int i = 0; i < N_COLUMNS; i++)
+            columnIndexOffsets[i] = buffer.getInt((5 + i) * Integer.BYTES);
+    }
+
+    /**
+     * Returns the number of clusters.
+     *
+     * @return Number of clusters
+     */
+    public int getNClusters()
+    {
+        return nClusters;
+    }
+
+    /**
+     * Returns the number of keywords in the keyword dictionary.
+     *
+     * @return Number of keywords
+     */
+    public int getNKeywords()
+    {
+        return nKeywords;
+    }
+
+    /**
+     * Returns a keyword from the keyword dictionary.
+     *
+     * @param keywordId Keyword ID
+     *
+     * @return Keyword
+     */
+    public String getKeyword(int keywordId)
+    {
+        if ((keywordId < 0) || (keywordId >= nKeywords))
+            throw new IndexOutOfBoundsException("Keyword ID " + keywordId + " does not exist.");
+        return readString(buffer.getInt(keywordIndexOffset + keywordId * Integer.BYTES));
+    }
+
+    /**
+     * Returns the labeling of a cluster.
+     *
+     * @param clusterNo Cluster number
+     *
+     * @return Cluster labeling, or null if the cluster has no labeling
+     */
+    public ClusterLabeling getClusterLabeling(int clusterNo)
+    {
+        if ((clusterNo < 0) || (clusterNo >= nClusters) || (getOffset(SHORT_LABEL_COLUMN, clusterNo) < 0))
+            return null;
+        int keywordsOffset = getOffset(KEYWORDS_COLUMN, clusterNo);
+        int nClusterKeywords = buffer.getInt(keywordsOffset);
+        ArrayList<String> keywords = new ArrayList<>(nClusterKeywords);
+        for (int i = 0; i < nClusterKeywords; i++)
+            keywords.add(getKeyword(buffer.getInt(keywordsOffset + (i + 1) * Integer.BYTES)));
+        return new ClusterLabeling(readString(getOffset(SHORT_LABEL_COLUMN, clusterNo)), readString(getOffset(LONG_LABEL_COLUMN, clusterNo)), keywords, readString(getOffset(SUMMARY_COLUMN, clusterNo)), readString(getOffset(WIKIPEDIA_PAGE_COLUMN, clusterNo)));
+    }
+
+    /**
+     * Returns the offset of the value of a cluster in a column.
+     *
+     * @param column    Column number
+     * @param clusterNo Cluster number
+     *
+     * @return Offset
+     */
+    private int getOffset(int column, int clusterNo)
+    {
+        return buffer.getInt(columnIndexOffsets[column] + clusterNo * Integer.BYTES);
+    }
+
+    /**
+     * Returns the current offset of an output stream.
+     *
+     * @param out Output stream
+     *
+     * @return Offset
+     *
+     * @throws IOException If the file exceeds the maximum size
+     */
+    private static int getOffset(DataOutputStream out) throws IOException
+    {
+        if (out.size() == Integer.MAX_VALUE)
+            throw new IOException("File exceeds the maximum size of " + Integer.MAX_VALUE + " bytes.");
+        return out.size();
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string.
+     *
+     * @param offset Offset of the string
+     *
+     * @return String
+     */
+    private String readString(int offset)
+    {
+        int length = buffer.getInt(offset);
+        if (length < 0)
+            return null;
+        ByteBuffer bytes = buffer.duplicate();
+        ((Buffer)bytes).limit(offset + Integer.BYTES + length);
+        ((Buffer)bytes).position(offset + Integer.BYTES);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    /**
+     * Encoder of length-prefixed UTF-8 strings that reuses its buffer.
+     */
+    private static class StringEncoder
+    {
+        /**
+         * UTF-8 encoder.
+         */
+        private CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        /**
+         * Buffer.
+         */
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+
+        /**
+         * Writes a length-prefixed UTF-8 string.
+         *
+         * @param out Output stream
+         * @param s   String
+         *
+         * @throws IOException If an I/O error occurs
+         */
+        void write(DataOutputStream out, String s) throws IOException
+        {
+            if (s == null)
+            {
+                out.writeInt(-1);
+                return;
+            }
+            if (buffer.capacity() < (long)s.length() * MAX_BYTES_PER_CHAR)
+                buffer = ByteBuffer.allocate(s.length() * MAX_BYTES_PER_CHAR);
+            ((Buffer)buffer).clear();
+            encoder.reset();
+            encoder.encode(CharBuffer.wrap(s), buffer, true);
+            encoder.flush(buffer);
+            out.writeInt(buffer.position());
+            out.write(buffer.array(), 0, buffer.position());
+        }
+    }
+}
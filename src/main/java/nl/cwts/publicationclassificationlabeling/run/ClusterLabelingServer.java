@@ -0,0 +1,347 @@
+package nl.cwts.publicationclassificationlabeling.run;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import nl.cwts.publicationclassificationlabeling.ClusterLabeler;
+import nl.cwts.publicationclassificationlabeling.ClusterLabeling;
+import nl.cwts.publicationclassificationlabeling.GPTClusterLabeler;
+import nl.cwts.publicationclassificationlabeling.GPTModel;
+import nl.cwts.publicationclassificationlabeling.PublicationTitlePreprocessor;
+
+/**
+ * Command line tool for running a local HTTP service that provides labels for
+ * clusters of scientific publications.
+ *
+ * <p>
+ * The service keeps a GPT cluster labeler for each GPT model, so that the
+ * OpenAI API client and tokenizer are reused across requests. Publication
+ * titles are preprocessed before labeling. Concurrent requests for the same
+ * GPT model and the same preprocessed publication titles are coalesced into a
+ * single request to the OpenAI API. The number of attempts to create a
+ * labeling is limited, so that a persistent error of the OpenAI API results in
+ * an error response instead of a request that never completes.
+ * </p>
+ *
+ * @author agent
+ */
+public class ClusterLabelingServer
+{
+    /**
+     * Description text.
+     */
+    public static final String DESCRIPTION
+        = "ClusterLabelingServer version 1.0.0\n"
+          + "By agent\n";
+
+    /**
+     * Usage text.
+     */
+    public static final String USAGE
+    = "Usage: ClusterLabelingServer\n"
+        + "\t<port> <api_key> <gpt_model>\n"
+        + "\t\t(to run a local HTTP service that provides cluster labelings)\n\n"
+        + "Arguments:\n"
+        + "<port>\n"
+        + "\tPort on which the service listens. The service only accepts connections from the local \n"
+        + "\thost. Cluster labelings can be requested by sending a POST request to /labeling with a \n"
+        + "\tJSON object containing the field pub_titles, which is either a single string of \n"
+        + "\tconcatenated publication titles or an array of publication titles, and optionally the \n"
+        + "\tfield gpt_model. The response is a JSON object containing the fields short_label, \n"
+        + "\tlong_label, keywords, summary, and wikipedia_url. If no labeling can be created in three \n"
+        + "\tattempts, the response has status code 502 and contains the field error.\n"
+        + "<api_key>\n"
+        + "\tOpenAI API key.\n"
+        + "<gpt_model>\n"
+        + "\tDefault OpenAI GPT model. The models supported are: 'gpt-4-1106-preview', 'gpt-4', \n"
+        + "\t'gpt-3.5-turbo-1106', and 'gpt-3.5-turbo'.\n";
+
+    /**
+     * Labeling endpoint.
+     */
+    private static final String LABELING_PATH = "/labeling";
+
+    /**
+     * Number of threads handling requests.
+     */
+    private static final int N_THREADS = 32;
+
+    /**
+     * Maximum number of attempts to create a labeling.
+     */
+    private static final int MAX_N_ATTEMPTS = 3;
+
+    /**
+     * HTTP status code of requests for which no labeling can be created.
+     */
+    private static final int HTTP_STATUS_BAD_GATEWAY = 502;
+
+    /**
+     * OpenAI API key.
+     */
+    private String apiKey;
+
+    /**
+     * Default OpenAI GPT model.
+     */
+    private GPTModel defaultModel;
+
+    /**
+     * GPT cluster labeler of each GPT model.
+     */
+    private ConcurrentHashMap<GPTModel, GPTClusterLabeler> clusterLabelers = new ConcurrentHashMap<>();
+
+    /**
+     * Labelings in progress by GPT model and preprocessed publication titles.
+     */
+    private ConcurrentHashMap<String, CompletableFuture<ClusterLabeling>> clusterLabelingsInProgress = new ConcurrentHashMap<>();
+
+    /**
+     * This method is called when the tool is started.
+     *
+     * @param args Command line arguments
+     */
+    public static void main(String[] args)
+    {
+        System.out.println(DESCRIPTION);
+        if (args.length == 0)
+        {
+            System.out.print(USAGE);
+            System.exit(-1);
+        }
+
+        // Process command line arguments.
+        if (args.length != 3)
+        {
+            System.err.print("Error while processing command line arguments: Incorrect number of command line arguments.\n\n" + USAGE);
+            System.exit(-1);
+        }
+
+        int port = 0;
+        String apiKey = null;
+        GPTModel model = null;
+        try
+        {
+            port = Integer.parseInt(args[0]);
+            if ((port < 1) || (port > 65535))
+                throw new NumberFormatException();
+        }
+        catch (NumberFormatException e)
+        {
+            System.err.println("Error while processing command line argument <port>: Value must be an integer between 1 and 65535.\n\n" + USAGE);
+            System.exit(-1);
+        }
+        apiKey = args[1];
+        model = GPTModel.getModel(args[2]);
+        if (model == null)
+        {
+            System.err.println("Error while processing command line argument <gpt_model>: Value must 'gpt-4-1106-preview', 'gpt-4', 'gpt-3.5-turbo-1106', or 'gpt-3.5-turbo'.\n\n" + USAGE);
+            System.exit(-1);
+        }
+
+        // Start service.
+        try
+        {
+            ClusterLabelingServer clusterLabelingServer = new ClusterLabelingServer(apiKey, model);
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext(LABELING_PATH, clusterLabelingServer::handleLabelingRequest);
+            server.setExecutor(Executors.newFixedThreadPool(N_THREADS));
+            server.start();
+            System.out.println("Listening on http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + port + LABELING_PATH + ".");
+        }
+        catch (IOException e)
+        {
+            System.err.println("Error while starting service: " + e.getMessage());
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Constructs a cluster labeling server.
+     *
+     * @param apiKey       OpenAI API key
+     * @param defaultModel Default OpenAI GPT model
+     */
+    public ClusterLabelingServer(String apiKey, GPTModel defaultModel)
+    {
+        this.apiKey = apiKey;
+        this.defaultModel = defaultModel;
+        getClusterLabeler(defaultModel);
+    }
+
+    /**
+     * Returns the labeling of a cluster based on the titles of the publications assigned to the cluster.
+     *
+     * <p>
+     * If a labeling for the same GPT model and the same preprocessed publication
+     * titles is already in progress, the labeling in progress is awaited
+     * instead of sending another request to the OpenAI API.
+     * </p>
+     *
+     * @param model     OpenAI GPT model
+     * @param pubTitles Publication titles
+     *
+     * @return Cluster labeling
+     */
+    public ClusterLabeling getClusterLabeling(GPTModel model, String pubTitles)
+    {
+        pubTitles = new PublicationTitlePreprocessor(model, PublicationTitlePreprocessor.DEFAULT_MAX_TOKENS).preprocess(pubTitles);
+        String key = model.name + "\n" + pubTitles;
+        CompletableFuture<ClusterLabeling> clusterLabeling = new CompletableFuture<>();
+        CompletableFuture<ClusterLabeling> clusterLabelingInProgress = clusterLabelingsInProgress.putIfAbsent(key, clusterLabeling);
+        if (clusterLabelingInProgress != null)
+            return clusterLabelingInProgress.join();
+        try
+        {
+            clusterLabeling.complete(getClusterLabeler(model).getClusterLabeling(pubTitles));
+        }
+        catch (RuntimeException e)
+        {
+            clusterLabeling.completeExceptionally(e);
+        }
+        finally
+        {
+            clusterLabelingsInProgress.remove(key, clusterLabeling);
+        }
+        return clusterLabeling.join();
+    }
+
+    /**
+     * Returns the GPT cluster labeler of a GPT model.
+     *
+     * @param model OpenAI GPT model
+     *
+     * @return GPT cluster labeler
+     */
+    private ClusterLabeler getClusterLabeler(GPTModel model)
+    {
+        return clusterLabelers.computeIfAbsent(model, m -> new GPTClusterLabeler(apiKey, m, true, false, GPTClusterLabeler.DEFAULT_MAX_CONCURRENCY, MAX_N_ATTEMPTS));
+    }
+
+    /**
+     * Handles a labeling request.
+     *
+     * @param exchange HTTP exchange
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    private void handleLabelingRequest(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("POST"))
+            {
+                sendResponse(exchange, 405, new JSONObject().put("error", "Only POST requests are supported."));
+                return;
+            }
+
+            // Parse request.
+            JSONObject request;
+            GPTModel model = defaultModel;
+            String pubTitles;
+            try
+            {
+                request = new JSONObject(readRequestBody(exchange));
+                if (request.has("gpt_model"))
+                {
+                    model = GPTModel.getModel(request.getString("gpt_model"));
+                    if (model == null)
+                        throw new JSONException("Unknown GPT model '" + request.getString("gpt_model") + "'.");
+                }
+                JSONArray pubTitlesJSONArray = request.optJSONArray("pub_titles");
+                if (pubTitlesJSONArray != null)
+                {
+                    StringBuilder builder = new StringBuilder();
+                    for (int i = 0; i < pubTitlesJSONArray.length(); i++)
+                    {
+                        if (i > 0)
+                            builder.append(ClusterLabeler.PUB_TITLE_SEPARATOR);
+                        builder.append(pubTitlesJSONArray.getString(i));
+                    }
+                    pubTitles = builder.toString();
+                }
+                else
+                    pubTitles = request.getString("pub_titles");
+                if (pubTitles.isEmpty())
+                    throw new JSONException("No publication titles provided.");
+            }
+            catch (JSONException e)
+            {
+                sendResponse(exchange, 400, new JSONObject().put("error", e.getMessage()));
+                return;
+            }
+
+            // Create labeling.
+            ClusterLabeling clusterLabeling;
+            try
+            {
+                clusterLabeling = getClusterLabeling(model, pubTitles);
+            }
+            catch (CompletionException e)
+            {
+                sendResponse(exchange, HTTP_STATUS_BAD_GATEWAY, new JSONObject().put("error", String.valueOf(e.getCause().getMessage())));
+                return;
+            }
+            sendResponse(exchange, 200, clusterLabeling.toJSON());
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Reads the body of a request.
+     *
+     * @param exchange HTTP exchange
+     *
+     * @return Request body
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    private static String readRequestBody(HttpExchange exchange) throws IOException
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        InputStream inputStream = exchange.getRequestBody();
+        byte[] buffer = new byte[8192];
+        int nBytes;
+        while ((nBytes = inputStream.read(buffer)) != -1)
+            body.write(buffer, 0, nBytes);
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sends a JSON response.
+     *
+     * @param exchange   HTTP exchange
+     * @param statusCode HTTP status code
+     * @param response   Response
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    private static void sendResponse(HttpExchange exchange, int statusCode, JSONObject response) throws IOException
+    {
+        byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(statusCode, body.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        outputStream.write(body);
+        outputStream.close();
+    }
+}
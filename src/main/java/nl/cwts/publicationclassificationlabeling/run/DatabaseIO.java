@@ -8,6 +8,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 
 import nl.cwts.publicationclassificationlabeling.ClusterLabeling;
+import nl.cwts.publicationclassificationlabeling.ClusterPublicationTitles;
 
 public class DatabaseIO
 {
@@ -17,12 +18,13 @@ public class DatabaseIO
      * @param server                SQL Server server name
      * @param database              Database name
      * @param clusterPubTitlesTable Name of the cluster publication titles table
+     * @param offHeap               Indicates whether the publication titles are stored off-heap
      *
      * @return Cluster publication titles
      */
-    public static String[] readClusterPublicationTitles(String server, String database, String clusterPubTitlesTable)
+    public static ClusterPublicationTitles readClusterPublicationTitles(String server, String database, String clusterPubTitlesTable, boolean offHeap)
     {
-        String[] clusterPubTitles = null;
+        ClusterPublicationTitles clusterPubTitles = null;
         
         Connection connection = null;
         try
@@ -38,7 +40,7 @@ public class DatabaseIO
             int maxClusterNo = resultSet.getInt(2);
             statement.close();
 
-            clusterPubTitles = new String[maxClusterNo + 1];
+            clusterPubTitles = new ClusterPublicationTitles(maxClusterNo + 1, offHeap);
             
             // Read cluster publication titles.
             statement = connection.createStatement();
@@ -48,10 +50,18 @@ public class DatabaseIO
                 resultSet.next();
                 int clusterNo = resultSet.getInt(1);
                 String pubTitles = resultSet.getString(2);
-                if (clusterPubTitles[clusterNo] != null)
+                if (clusterPubTitles.contains(clusterNo))
                     throw new SQLException("Cluster number " + clusterNo + " occurs multiple times.");
-                clusterPubTitles[clusterNo] = pubTitles;
+                try
+                {
+                    clusterPubTitles.setPublicationTitles(clusterNo, pubTitles);
+                }
+                catch (IllegalStateException e)
+                {
+                    throw new SQLException(e.getMessage());
+                }
             }
+            clusterPubTitles.trimToSize();
 
             connection.close();
         }
@@ -8,6 +8,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 
 import nl.cwts.publicationclassificationlabeling.ClusterLabeling;
+import nl.cwts.publicationclassificationlabeling.ClusterPublicationTitles;
 
 public class FileIO
 {
@@ -20,12 +21,13 @@ public class FileIO
      * Reads cluster publication titles from a file.
      *
      * @param clusterPubTitlesFile Name of the cluster publication titles files
+     * @param offHeap              Indicates whether the publication titles are stored off-heap
      *
      * @return Cluster publication titles
      */
-    public static String[] readClusterPublicationTitles(String clusterPubTitlesFile)
+    public static ClusterPublicationTitles readClusterPublicationTitles(String clusterPubTitlesFile, boolean offHeap)
     {
-        String[] clusterPubTitles = null;
+        ClusterPublicationTitles clusterPubTitles = null;
 
         BufferedReader reader = null;
         try
@@ -38,7 +40,7 @@ public class FileIO
             if (nLines == 0)
                 throw new IOException("File is empty.");
 
-            clusterPubTitles = new String[nLines];
+            clusterPubTitles = new ClusterPublicationTitles(nLines, offHeap);
 
             reader = new BufferedReader(new FileReader(clusterPubTitlesFile));
             String line = reader.readLine();
@@ -58,13 +60,20 @@ public class FileIO
                 {
                     throw new IOException("Cluster numbers must be integers starting at zero (line " + lineNo + ").");
                 }
-                String pubTitles = columns[1];
-                if (clusterPubTitles[clusterNo] != null)
+                if (clusterPubTitles.contains(clusterNo))
                     throw new IOException("Cluster number " + clusterNo + " occurs multiple times (line " + lineNo + ").");
-                clusterPubTitles[clusterNo] = pubTitles;
+                try
+                {
+                    clusterPubTitles.setPublicationTitles(clusterNo, columns[1]);
+                }
+                catch (IllegalStateException e)
+                {
+                    throw new IOException(e.getMessage());
+                }
                 line = reader.readLine();
             }
             reader.close();
+            clusterPubTitles.trimToSize();
         }
         catch (FileNotFoundException e)
         {
@@ -109,12 +118,17 @@ public class FileIO
             for (int i = 0; i < nClusters; i++)
                 if (clusterLabeling[i] != null)
                 {
-                    writer.write(i + "");
-                    writer.write(COLUMN_SEPARATOR + clusterLabeling[i].shortLabel);
-                    writer.write(COLUMN_SEPARATOR + clusterLabeling[i].longLabel);
-                    writer.write(COLUMN_SEPARATOR + clusterLabeling[i].getKeywords());
-                    writer.write(COLUMN_SEPARATOR + clusterLabeling[i].summary);
-                    writer.write(COLUMN_SEPARATOR + clusterLabeling[i].wikipediaPage);
+                    writer.write(Integer.toString(i));
+                    writer.write(COLUMN_SEPARATOR);
+                    writer.write(String.valueOf(clusterLabeling[i].shortLabel));
+                    writer.write(COLUMN_SEPARATOR);
+                    writer.write(String.valueOf(clusterLabeling[i].longLabel));
+                    writer.write(COLUMN_SEPARATOR);
+                    writer.write(String.valueOf(clusterLabeling[i].getKeywords()));
+                    writer.write(COLUMN_SEPARATOR);
+                    writer.write(String.valueOf(clusterLabeling[i].summary));
+                    writer.write(COLUMN_SEPARATOR);
+                    writer.write(String.valueOf(clusterLabeling[i].wikipediaPage));
                     writer.newLine();
                 }
         }
@@ -142,4 +156,33 @@ public class FileIO
                 }
         }
     }
+
+    /**
+     * Writes a publication classification labeling to a binary file.
+     *
+     * <p>
+     * See {@link ClusterLabelingBinaryFile} for a description of the file
+     * format.
+     * </p>
+     *
+     * @param clusterLabelingFile Name of the cluster labeling file
+     * @param clusterLabeling     Cluster labelings
+     */
+    public static void writeClusterLabelingBinary(String clusterLabelingFile, ClusterLabeling[] clusterLabeling)
+    {
+        try
+        {
+            ClusterLabelingBinaryFile.write(clusterLabelingFile, clusterLabeling);
+        }
+        catch (FileNotFoundException e)
+        {
+            System.err.println("Error while writing publication classification labeling to binary file: File not found.");
+            System.exit(-1);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Error while writing publication classification labeling to binary file: " + e.getMessage());
+            System.exit(-1);
+        }
+    }
 }
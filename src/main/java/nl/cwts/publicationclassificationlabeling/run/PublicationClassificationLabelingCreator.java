@@ -1,8 +1,24 @@
 package nl.cwts.publicationclassificationlabeling.run;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nl.cwts.publicationclassificationlabeling.ClusterLabeler;
 import nl.cwts.publicationclassificationlabeling.ClusterLabeling;
+import nl.cwts.publicationclassificationlabeling.ClusterPublicationTitles;
 import nl.cwts.publicationclassificationlabeling.GPTClusterLabeler;
 import nl.cwts.publicationclassificationlabeling.GPTModel;
+import nl.cwts.publicationclassificationlabeling.PreprocessingClusterLabeler;
+import nl.cwts.publicationclassificationlabeling.PublicationTitlePreprocessor;
+import nl.cwts.publicationclassificationlabeling.RoutingClusterLabeler;
+import nl.cwts.publicationclassificationlabeling.TFIDFClusterLabeler;
 
 /**
  * Command line tool for obtaining labels for clusters of scientific publications.
@@ -29,11 +45,11 @@ public class PublicationClassificationLabelingCreator
     public static final String USAGE
     = "Usage: PublicationClassificationLabelingCreator\n"
         + "\t<pub_titles_file> <label_file>\n"
-        + "\t<api_key> <gpt_model> <print_labeling>\n"
+        + "\t<api_key> <gpt_model> <print_labeling> [<options>]\n"
         + "\t\t(to create a publication classification labeling based on data in text files)\n\n"
         + "   or  PublicationClassificationLabelingCreator\n"
         + "\t<server> <database> <pub_titles_table> <label_table>\n"
-        + "\t<api_key> <gpt_model> <print_labeling>\n"
+        + "\t<api_key> <gpt_model> <print_labeling> [<options>]\n"
         + "\t\t(to create a publication classification labeling based on data in an SQL Server database)\n\n"
         + "Arguments:\n"
         + "<pub_titles_file>\n"
@@ -68,7 +84,50 @@ public class PublicationClassificationLabelingCreator
         + "\t'gpt-3.5-turbo-1106', and 'gpt-3.5-turbo'.\n"
         + "<print_labeling>\n"
         + "\tBoolean indicating whether the generated publication classification labeling should be \n"
-        + "\tprinted to the standard output or not.\n";
+        + "\tprinted to the standard output or not.\n\n"
+        + "Options:\n"
+        + "--min_pub_titles_gpt <min_pub_titles_gpt>\n"
+        + "\tMinimum number of publication titles for a cluster to be labeled using OpenAI GPT. Clusters \n"
+        + "\twith fewer publication titles are labeled locally based on a class-based TF-IDF weighting of \n"
+        + "\tthe phrases in the publication titles. Locally created labelings have no summary and no \n"
+        + "\tWikipedia page. Default: 0 (all clusters are labeled using OpenAI GPT).\n"
+        + "--stream <stream>\n"
+        + "\tBoolean indicating whether completions should be streamed or not. Streamed labelings are \n"
+        + "\tparsed while they are being received. A request is cancelled as soon as the labeling is \n"
+        + "\tcomplete or the response turns out to be malformed, in which case the request is retried. \n"
+        + "\tThe first two retries of a labeling are made immediately; further retries are made after \n"
+        + "\tthe usual delay of 30 seconds. Default: false.\n"
+        + "--hedge <hedge>\n"
+        + "\tBoolean indicating whether requests should be hedged or not. If a request takes longer than \n"
+        + "\tthe 90th percentile of the latencies of recent requests, a duplicate request is fired and \n"
+        + "\tthe first valid response is used. At most one extra request is fired per ten requests. \n"
+        + "\tDefault: false.\n"
+        + "--max_concurrency <max_concurrency>\n"
+        + "\tMaximum number of concurrent requests to the OpenAI API. The number of concurrent requests \n"
+        + "\tstarts at one and adapts to the rate limits of the API key and the GPT model: it grows while \n"
+        + "\trequests succeed and shrinks when requests are rate limited, time out, or show a latency \n"
+        + "\tspike. Default: 8.\n"
+        + "--off_heap_titles <off_heap_titles>\n"
+        + "\tBoolean indicating whether the publication titles should be stored outside the Java heap \n"
+        + "\tor not. Publication titles are stored in a compact UTF-8 encoding either way. Storing \n"
+        + "\tthem outside the Java heap requires the maximum amount of direct memory \n"
+        + "\t(-XX:MaxDirectMemorySize) to be sufficiently large. Default: false.\n"
+        + "--max_prompt_tokens <max_prompt_tokens>\n"
+        + "\tMaximum number of tokens of the publication titles of a cluster labeled using GPT. Before \n"
+        + "\tlabeling using GPT, markup and duplicate publication titles are removed. If the remaining \n"
+        + "\tpublication titles exceed the maximum number of tokens, a representative subset of the \n"
+        + "\tpublication titles is selected. Clusters are routed based on their original publication \n"
+        + "\ttitles. Default: 2000.\n"
+        + "--binary_label_file <binary_label_file>\n"
+        + "\tName of a binary file to which the labeling is written in addition to the output file or \n"
+        + "\ttable. The binary file stores the labeling in columns, with a dictionary of keywords shared \n"
+        + "\tby all clusters and an index by cluster number, so that the labeling of a cluster can be \n"
+        + "\tlooked up in a memory-mapped file without reading the entire file. Default: none.\n";
+
+    /**
+     * Names of the supported options.
+     */
+    private static final List<String> OPTIONS = Arrays.asList("min_pub_titles_gpt", "stream", "hedge", "max_concurrency", "off_heap_titles", "max_prompt_tokens", "binary_label_file");
 
     /**
      * This method is called when the tool is started.
@@ -84,6 +143,29 @@ public class PublicationClassificationLabelingCreator
             System.exit(-1);
         }
 
+        // Process optional command line arguments.
+        Map<String, String> options = new HashMap<>();
+        List<String> requiredArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++)
+            if (args[i].startsWith("--"))
+            {
+                String option = args[i].substring(2);
+                if (!OPTIONS.contains(option))
+                {
+                    System.err.print("Error while processing command line arguments: Unknown option '" + args[i] + "'.\n\n" + USAGE);
+                    System.exit(-1);
+                }
+                if (i + 1 == args.length)
+                {
+                    System.err.print("Error while processing command line arguments: Missing value of option '" + args[i] + "'.\n\n" + USAGE);
+                    System.exit(-1);
+                }
+                options.put(option, args[++i]);
+            }
+            else
+                requiredArgs.add(args[i]);
+        args = requiredArgs.toArray(new String[requiredArgs.size()]);
+
         // Process command line arguments.
         boolean useFiles = false;
         if (args.length == 5)
@@ -140,15 +222,102 @@ public class PublicationClassificationLabelingCreator
             System.err.println("Error while processing command line argument <print_labeling>: Value must be a boolean ('true' or 'false').\n\n" + USAGE);
             System.exit(-1);
         }
+        int minNPubTitlesGPT = 0;
+        try
+        {
+            if (options.containsKey("min_pub_titles_gpt"))
+                minNPubTitlesGPT = Integer.parseUnsignedInt(options.get("min_pub_titles_gpt"));
+        }
+        catch (NumberFormatException e)
+        {
+            System.err.println("Error while processing command line option --min_pub_titles_gpt: Value must be a non-negative integer.\n\n" + USAGE);
+            System.exit(-1);
+        }
+        boolean stream = false;
+        try
+        {
+            if (options.containsKey("stream"))
+            {
+                if (!options.get("stream").equalsIgnoreCase("true") && !options.get("stream").equalsIgnoreCase("false"))
+                    throw new IllegalArgumentException();
+                stream = Boolean.parseBoolean(options.get("stream"));
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println("Error while processing command line option --stream: Value must be a boolean ('true' or 'false').\n\n" + USAGE);
+            System.exit(-1);
+        }
+        boolean hedge = false;
+        try
+        {
+            if (options.containsKey("hedge"))
+            {
+                if (!options.get("hedge").equalsIgnoreCase("true") && !options.get("hedge").equalsIgnoreCase("false"))
+                    throw new IllegalArgumentException();
+                hedge = Boolean.parseBoolean(options.get("hedge"));
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println("Error while processing command line option --hedge: Value must be a boolean ('true' or 'false').\n\n" + USAGE);
+            System.exit(-1);
+        }
+        int maxConcurrency = GPTClusterLabeler.DEFAULT_MAX_CONCURRENCY;
+        try
+        {
+            if (options.containsKey("max_concurrency"))
+            {
+                maxConcurrency = Integer.parseInt(options.get("max_concurrency"));
+                if (maxConcurrency < 1)
+                    throw new NumberFormatException();
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            System.err.println("Error while processing command line option --max_concurrency: Value must be a positive integer.\n\n" + USAGE);
+            System.exit(-1);
+        }
+        boolean offHeapTitles = false;
+        try
+        {
+            if (options.containsKey("off_heap_titles"))
+            {
+                if (!options.get("off_heap_titles").equalsIgnoreCase("true") && !options.get("off_heap_titles").equalsIgnoreCase("false"))
+                    throw new IllegalArgumentException();
+                offHeapTitles = Boolean.parseBoolean(options.get("off_heap_titles"));
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println("Error while processing command line option --off_heap_titles: Value must be a boolean ('true' or 'false').\n\n" + USAGE);
+            System.exit(-1);
+        }
+        int maxPromptTokens = PublicationTitlePreprocessor.DEFAULT_MAX_TOKENS;
+        try
+        {
+            if (options.containsKey("max_prompt_tokens"))
+            {
+                maxPromptTokens = Integer.parseInt(options.get("max_prompt_tokens"));
+                if (maxPromptTokens < 1)
+                    throw new NumberFormatException();
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            System.err.println("Error while processing command line option --max_prompt_tokens: Value must be a positive integer.\n\n" + USAGE);
+            System.exit(-1);
+        }
+        String binaryClusterLabelingFile = options.get("binary_label_file");
 
         // Read publication titles from file or database.
         System.out.print("Reading publication titles from " + ((useFiles) ? "file" : "database") + "... ");
         long startTimeReadPubTitles = System.currentTimeMillis();
-        String[] clusterPubTitles;
+        ClusterPublicationTitles clusterPubTitles;
         if (useFiles)
-            clusterPubTitles = FileIO.readClusterPublicationTitles(clusterPubTitlesFile);
+            clusterPubTitles = FileIO.readClusterPublicationTitles(clusterPubTitlesFile, offHeapTitles);
         else
-            clusterPubTitles = DatabaseIO.readClusterPublicationTitles(server, database, clusterPubTitlesTable);
+            clusterPubTitles = DatabaseIO.readClusterPublicationTitles(server, database, clusterPubTitlesTable, offHeapTitles);
         System.out.println("Finished!");
         System.out.println("Reading publication titles from " + ((useFiles) ? "file" : "database") + " took " + formatDuration((System.currentTimeMillis() - startTimeReadPubTitles) / 1000) + ".");
         System.out.println();
@@ -157,29 +326,36 @@ public class PublicationClassificationLabelingCreator
         System.out.println("Creating labeling for each cluster...");
         System.out.println();
         long startCreateClusterLabeling = System.currentTimeMillis();
-        GPTClusterLabeler clusterLabeler = new GPTClusterLabeler(apiKey, model);
-        int nClusters = clusterPubTitles.length;
+        GPTClusterLabeler gptClusterLabeler = new GPTClusterLabeler(apiKey, model, stream, hedge, maxConcurrency);
+        ClusterLabeler preprocessingClusterLabeler = new PreprocessingClusterLabeler(gptClusterLabeler, new PublicationTitlePreprocessor(model, maxPromptTokens));
+        ClusterLabeler clusterLabeler = (minNPubTitlesGPT > 0) ? new RoutingClusterLabeler(preprocessingClusterLabeler, new TFIDFClusterLabeler(clusterPubTitles), minNPubTitlesGPT) : preprocessingClusterLabeler;
+        int nClusters = clusterPubTitles.getNClusters();
         ClusterLabeling[] clusterLabeling = new ClusterLabeling[nClusters];
+        ExecutorService executor = Executors.newFixedThreadPool(maxConcurrency);
+        List<Future<?>> futures = new ArrayList<>();
+        boolean printClusterLabelings = printLabeling;
         for (int i = 0; i < nClusters; i++)
         {
             int clusterNo = i;
-            if ((clusterNo < nClusters) && !clusterPubTitles[clusterNo].isEmpty())
-            {
-                System.out.print("Creating labeling cluster " + clusterNo + "... ");
-                clusterLabeling[clusterNo] = clusterLabeler.getClusterLabeling(clusterPubTitles[clusterNo]);
-                System.out.println("Finished!");
-                if (printLabeling)
+            if (!clusterPubTitles.isEmpty(clusterNo))
+                futures.add(executor.submit(() ->
                 {
-                    System.out.println("Labeling:");
-                    System.out.println("\tShort label: " + clusterLabeling[clusterNo].shortLabel);
-                    System.out.println("\tLong label:  " + clusterLabeling[clusterNo].longLabel);
-                    System.out.println("\tKeywords:    " + clusterLabeling[clusterNo].getKeywords());
-                    System.out.println("\tSummary:     " + clusterLabeling[clusterNo].summary);
-                    System.out.println("\tWikipedia:   " + clusterLabeling[clusterNo].wikipediaPage);
-                    System.out.println();
-                }
-            }
+                    clusterLabeling[clusterNo] = clusterLabeler.getClusterLabeling(clusterPubTitles.getPublicationTitles(clusterNo));
+                    printClusterLabeling(clusterNo, clusterLabeling[clusterNo], printClusterLabelings);
+                }));
+        }
+        executor.shutdown();
+        try
+        {
+            for (Future<?> future : futures)
+                future.get();
         }
+        catch (InterruptedException | ExecutionException e)
+        {
+            System.err.println("Error while creating labeling: " + e.getMessage());
+            System.exit(-1);
+        }
+        System.out.println("Concurrency limit at the end of labeling: " + gptClusterLabeler.getConcurrencyLimit() + ".");
         System.out.println("Creating labeling for each cluster took " + formatDuration((System.currentTimeMillis() - startCreateClusterLabeling) / 1000) + ".");
         System.out.println();
 
@@ -192,6 +368,46 @@ public class PublicationClassificationLabelingCreator
             DatabaseIO.writeClusterLabelings(server, database, clusterLabelingTable, clusterLabeling);
         System.out.println("Finished!");
         System.out.println("Writing labeling to " + ((useFiles) ? "file" : "database") + " took " + formatDuration((System.currentTimeMillis() - startTimeWriteClusterLabeling) / 1000) + ".");
+
+        // Write labeling to binary file.
+        if (binaryClusterLabelingFile != null)
+        {
+            System.out.println();
+            System.out.print("Writing labeling to binary file... ");
+            long startTimeWriteBinaryClusterLabeling = System.currentTimeMillis();
+            FileIO.writeClusterLabelingBinary(binaryClusterLabelingFile, clusterLabeling);
+            System.out.println("Finished!");
+            System.out.println("Writing labeling to binary file took " + formatDuration((System.currentTimeMillis() - startTimeWriteBinaryClusterLabeling) / 1000) + ".");
+        }
+    }
+
+    /**
+     * Prints that the labeling of a cluster has been created.
+     *
+     * <p>
+     * The output for a cluster is printed at once, so that the output for
+     * clusters labeled concurrently is not interleaved.
+     * </p>
+     *
+     * @param clusterNo       Cluster number
+     * @param clusterLabeling Cluster labeling
+     * @param printLabeling   Indicates whether the labeling should be printed
+     */
+    private static void printClusterLabeling(int clusterNo, ClusterLabeling clusterLabeling, boolean printLabeling)
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Creating labeling cluster " + clusterNo + "... Finished!\n");
+        if (printLabeling)
+        {
+            builder.append("Labeling:\n");
+            builder.append("\tShort label: " + clusterLabeling.shortLabel + "\n");
+            builder.append("\tLong label:  " + clusterLabeling.longLabel + "\n");
+            builder.append("\tKeywords:    " + clusterLabeling.getKeywords() + "\n");
+            builder.append("\tSummary:     " + clusterLabeling.summary + "\n");
+            builder.append("\tWikipedia:   " + clusterLabeling.wikipediaPage + "\n");
+            builder.append("\n");
+        }
+        System.out.print(builder);
     }
 
     /**